@@ -1,5 +1,25 @@
 import java.io.*;
 import java.util.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 /*
 	Utilice esta clase para guardar la informacion de su
@@ -10,8 +30,69 @@ import java.util.*;
 public class AFN {
 	// Variables para marcar estados de aceptación y almacenar transiciones
 	private boolean[] acceptanceStates;
-	private List<List<List<List<String>>>> transitions = new ArrayList<>();
 	private String[] alphabet; // Almacenar el alfabeto de entrada
+	private int maxStates; // Cantidad de estados declarada en el archivo (incluye el estado 0)
+
+	// Tabla de transiciones compilada en formato CSR, un par de arreglos por símbolo (lambda en el índice 0).
+	// Los destinos del estado 's' con el símbolo 'i' son transitionTargets[i][transitionOffsets[i][s] .. transitionOffsets[i][s + 1] - 1].
+	private int[][] transitionOffsets;
+	private int[][] transitionTargets;
+
+	// Estructuras del motor de simulación con bitsets, precalculadas al cargar el AFN.
+	// Cada conjunto de estados se representa con 'stateWords' longs, un bit por estado en el rango [0, maxStates].
+	private int stateWords;
+	// Clausura lambda de cada estado en formato CSR (incluye al propio estado):
+	// closureMembers[closureOffsets[s] .. closureOffsets[s + 1] - 1] en orden ascendente.
+	private int[] closureOffsets;
+	private int[] closureMembers;
+	private long[] initialStates; // Clausura lambda del estado inicial 1
+	private long[] acceptanceMask; // Bitmap de estados de aceptación
+	private long[] liveMask; // Estados desde los que se puede llegar a un estado de aceptación
+
+	// Búsqueda de símbolos: si todos los símbolos son de un solo carácter, charSymbols[c] es el índice (1..alphabet.length)
+	// del símbolo c o 0 si c no está en el alfabeto. Si hay símbolos de varios caracteres (o code points suplementarios)
+	// charSymbols es null y la entrada se divide en símbolos con symbolTrie.
+	private int[] charSymbols;
+	private SymbolTrie symbolTrie;
+
+	// Lo mismo sobre los bytes UTF-8 de la entrada, usado al escanear archivos: tabla directa si todos los
+	// símbolos ocupan un byte, o un trie sobre sus bytes (cada byte como un carácter de 0 a 255).
+	private int[] byteSymbols;
+	private SymbolTrie byteSymbolTrie;
+
+	// Camino rápido para autómatas de hasta 64 estados: cada conjunto cabe en un solo long.
+	// smallSteps[i][s] es la unión de las clausuras lambda de los destinos de 's' con el símbolo 'i'.
+	private long[][] smallSteps;
+
+	// Métricas opcionales (ver AFNMetrics); null mientras están desactivadas.
+	private volatile AFNMetrics metrics = Boolean.getBoolean("afn.metrics") ? new AFNMetrics() : null;
+
+	// Matcher reutilizable por hilo para que 'accept' no reserve memoria por llamada.
+	private final ThreadLocal<Matcher> acceptMatchers = new ThreadLocal<>();
+
+	// AFD perezoso: cada hilo construye bajo demanda su propia cache de conjuntos de estados y sus transiciones.
+	// El presupuesto se expresa en bytes por hilo; con 0 'accept' simula el AFN directamente.
+	public static final long DEFAULT_LAZY_DFA_BUDGET = 8L << 20;
+	private volatile long lazyDFABudget = DEFAULT_LAZY_DFA_BUDGET;
+	private volatile int compiledGeneration; // Cambia cada vez que se recompila el AFN o el presupuesto, invalidando las caches
+	private final ThreadLocal<LazyDFA> lazyDFAs = new ThreadLocal<>();
+	private final LongAdder lazyDFAHits = new LongAdder();
+	private final LongAdder lazyDFAMisses = new LongAdder();
+	private final LongAdder lazyDFAFlushes = new LongAdder();
+	private final LongAdder lazyDFAFallbacks = new LongAdder();
+
+	/*
+		Detección de una cache que no se reutiliza (entradas de alta entropía, donde casi cada paso descubre un
+		conjunto nuevo): cada LAZY_DFA_CHECK_STEPS pasos de una entrada se revisa si esa entrada ya vació la cache
+		más de LAZY_DFA_MAX_FLUSHES veces o si más de tres cuartos de los pasos fueron fallos. En ese caso el resto
+		de la entrada se simula con bitsets, que no reservan memoria por paso.
+	*/
+	private static final int LAZY_DFA_CHECK_STEPS = 256;
+	private static final int LAZY_DFA_MAX_FLUSHES = 2;
+
+	// Encabezado de la imagen binaria precompilada ("AFNB") y versión del formato.
+	public static final int COMPILED_MAGIC = 0x41464E42;
+	public static final int COMPILED_VERSION = 1;
 
 	// Constantes para manejo de color en la consola
 	public static final String ANSI_MAGENTA = "\033[0;35m";
@@ -29,331 +110,3140 @@ public class AFN {
 		for (String msg : messages) {
 			System.out.print(msg + " ");
 		}
-		if (newLine) {
-			System.out.println(ANSI_RESET);
-		} else {
-			System.out.print(ANSI_RESET);
+		if (newLine) {
+			System.out.println(ANSI_RESET);
+		} else {
+			System.out.print(ANSI_RESET);
+		}
+	}
+
+	// Constructor que carga un AFN desde un archivo
+	public AFN(String path) throws FileNotFoundException {
+		loadAFN(path);
+	}
+
+	// Carga el AFN y, si se pide, lo optimiza con 'optimize' antes de usarlo.
+	public AFN(String path, boolean optimize) throws FileNotFoundException {
+		loadAFN(path);
+		if (optimize) {
+			optimize();
+		}
+	}
+
+	/*
+		Construye un AFN a partir de sus tablas ya armadas (por ejemplo, la unión de varios AFN en AFNUnion).
+		Las tablas tienen el mismo formato que las internas: CSR por símbolo con lambda en el índice 0, y
+		'acceptanceStates' con maxStates + 1 casillas.
+	*/
+	AFN(String[] alphabet, boolean[] acceptanceStates, int[][] transitionOffsets, int[][] transitionTargets) {
+		this.alphabet = alphabet;
+		this.acceptanceStates = acceptanceStates;
+		this.maxStates = acceptanceStates.length - 1;
+		this.transitionOffsets = transitionOffsets;
+		this.transitionTargets = transitionTargets;
+		compileSimulation(false);
+	}
+
+	// Accesos de solo lectura a las tablas, sin copiarlas, para las clases que combinan autómatas.
+	String[] getAlphabet() {
+		return alphabet;
+	}
+
+	int getMaxStates() {
+		return maxStates;
+	}
+
+	boolean isAcceptanceState(int state) {
+		return acceptanceStates[state];
+	}
+
+	int[] getTransitionOffsets(int symbolIndex) {
+		return transitionOffsets[symbolIndex];
+	}
+
+	int[] getTransitionTargets(int symbolIndex) {
+		return transitionTargets[symbolIndex];
+	}
+
+	// Método para cargar los datos del AFN desde un archivo especificado
+	public void loadAFN(String path) throws FileNotFoundException {
+		AFNMetrics metrics = this.metrics;
+		if (metrics == null) {
+			readAFN(path);
+			return;
+		}
+		AFNMetrics.LoadEvent event = new AFNMetrics.LoadEvent();
+		event.begin();
+		long start = System.nanoTime();
+		readAFN(path);
+		metrics.recordLoad(System.nanoTime() - start);
+		event.end();
+		if (event.shouldCommit()) {
+			event.path = path;
+			event.states = maxStates;
+			event.symbols = alphabet.length;
+			event.commit();
+		}
+	}
+
+	private void readAFN(String path) throws FileNotFoundException {
+		File file = new File(path);
+
+		// Si el archivo es una imagen binaria generada con -compile, se carga sin interpretar texto.
+		if (isCompiledImage(file)) {
+			try {
+				loadCompiledAFN(path);
+			} catch (FileNotFoundException e) {
+				throw e;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Error al cargar la imagen binaria " + path, e);
+			}
+			return;
+		}
+
+		try (AFNReader reader = new AFNReader(file)) {
+			parseAFN(reader);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Error al leer " + path, e);
+		}
+
+		compileSimulation(false);
+	}
+
+	/*
+		Precalcula las clausuras lambda, el bitmap de aceptación y el mapa de símbolos usados por 'accept'.
+		Si las clausuras ya están cargadas (AFN leído desde su imagen binaria) no se recalculan.
+	*/
+	private void compileSimulation(boolean closuresLoaded) {
+		compiledGeneration++;
+		int stateCount = maxStates + 1;
+		stateWords = (stateCount + 63) >>> 6;
+
+		compileSymbols();
+
+		acceptanceMask = new long[stateWords];
+		for (int state = 0; state < acceptanceStates.length; state++) {
+			if (acceptanceStates[state]) {
+				acceptanceMask[state >>> 6] |= 1L << state;
+			}
+		}
+
+		if (!closuresLoaded) {
+			computeLambdaClosures();
+		}
+
+		initialStates = new long[stateWords];
+		addClosure(initialStates, 1); // Asumiendo que el estado inicial es siempre 1
+
+		liveMask = computeLiveStates();
+
+		smallSteps = null;
+		if (stateWords == 1) {
+			smallSteps = new long[alphabet.length + 1][stateCount];
+			for (int symbolIndex = 1; symbolIndex <= alphabet.length; symbolIndex++) {
+				int[] offsets = transitionOffsets[symbolIndex];
+				int[] targets = transitionTargets[symbolIndex];
+				long[] closure = new long[1];
+				for (int state = 0; state < stateCount; state++) {
+					closure[0] = 0L;
+					for (int k = offsets[state]; k < offsets[state + 1]; k++) {
+						addClosure(closure, targets[k]);
+					}
+					smallSteps[symbolIndex][state] = closure[0];
+				}
+			}
+		}
+	}
+
+	/*
+		Lee el formato de texto .afn directamente desde los bytes del archivo, llenando las tablas compiladas
+		sin crear un String por línea ni por casilla. Cualquier error de formato (números inválidos o fuera de rango,
+		casillas de más o de menos, filas faltantes) se reporta con una AFNFormatException que indica línea y columna.
+	*/
+	private void parseAFN(AFNReader reader) throws IOException {
+		// Leer y almacenar el alfabeto
+		List<String> symbols = new ArrayList<>();
+		do {
+			symbols.add(reader.readSymbol());
+		} while (reader.consume(','));
+		reader.endLine("el alfabeto");
+		alphabet = symbols.toArray(new String[0]);
+		int maxSymbols = alphabet.length + 1; // Contando lambda
+
+		// Leer cantidad de estados
+		maxStates = reader.readInt("la cantidad de estados", 1, Integer.MAX_VALUE - 2);
+		reader.endLine("la cantidad de estados");
+
+		// Marcar estados de aceptación (una línea vacía indica que no hay ninguno, como en un AFN optimizado de lenguaje vacío)
+		acceptanceStates = new boolean[maxStates + 1];
+		if (!reader.atLineEnd()) {
+			do {
+				acceptanceStates[reader.readInt("un estado de aceptación", 0, maxStates - 1)] = true;
+			} while (reader.consume(','));
+		}
+		reader.endLine("los estados de aceptación");
+
+		// Una fila por símbolo (lambda primero) con 'maxStates' casillas; cada casilla lista sus destinos separados por ';'.
+		transitionOffsets = new int[maxSymbols][];
+		transitionTargets = new int[maxSymbols][];
+		for (int symbolIndex = 0; symbolIndex < maxSymbols; symbolIndex++) {
+			String symbol = symbolIndex == 0 ? "lambda" : "'" + alphabet[symbolIndex - 1] + "'";
+			if (reader.atEnd()) {
+				throw reader.error("falta la fila de transiciones del símbolo " + symbol
+						+ " (se esperaban " + maxSymbols + " filas, se encontraron " + symbolIndex + ")");
+			}
+
+			int[] offsets = new int[maxStates + 2];
+			int[] targets = new int[maxStates];
+			int targetCount = 0;
+			for (int state = 0; state < maxStates; state++) {
+				if (state > 0 && !reader.consume(',')) {
+					throw reader.error("la fila del símbolo " + symbol + " tiene " + state + " casillas, se esperaban " + maxStates);
+				}
+				offsets[state] = targetCount;
+				do {
+					if (targetCount == targets.length) {
+						targets = Arrays.copyOf(targets, Math.max(4, targets.length * 2));
+					}
+					targets[targetCount++] = reader.readInt("un estado destino", 0, maxStates - 1);
+				} while (reader.consume(';'));
+			}
+			if (reader.consume(',')) {
+				throw reader.error("la fila del símbolo " + symbol + " tiene más de " + maxStates + " casillas");
+			}
+			reader.endLine("la fila del símbolo " + symbol);
+
+			// La fila extra maxStates queda con un rango vacío.
+			offsets[maxStates] = targetCount;
+			offsets[maxStates + 1] = targetCount;
+			transitionOffsets[symbolIndex] = offsets;
+			transitionTargets[symbolIndex] = Arrays.copyOf(targets, targetCount);
+		}
+	}
+
+	// Error de formato en un archivo .afn, con la línea y columna donde se detectó.
+	public static class AFNFormatException extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+
+		private final int line;
+		private final int column;
+
+		public AFNFormatException(int line, int column, String message) {
+			super("Línea " + line + ", columna " + column + ": " + message);
+			this.line = line;
+			this.column = column;
+		}
+
+		public int getLine() {
+			return line;
+		}
+
+		public int getColumn() {
+			return column;
+		}
+	}
+
+	// Lector de bytes con búfer sobre un FileChannel que lleva la cuenta de línea y columna.
+	private static final class AFNReader implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+		private int line = 1;
+		private int column = 1;
+
+		AFNReader(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			buffer.flip();
+		}
+
+		private int peek() throws IOException {
+			if (!buffer.hasRemaining()) {
+				buffer.clear();
+				int read;
+				do {
+					read = channel.read(buffer);
+				} while (read == 0);
+				buffer.flip();
+				if (read < 0) {
+					return -1;
+				}
+			}
+			return buffer.get(buffer.position()) & 0xFF;
+		}
+
+		private int next() throws IOException {
+			int c = peek();
+			if (c >= 0) {
+				buffer.position(buffer.position() + 1);
+				if (c == '\n') {
+					line++;
+					column = 1;
+				} else {
+					column++;
+				}
+			}
+			return c;
+		}
+
+		private void skipBlanks() throws IOException {
+			int c;
+			while ((c = peek()) == ' ' || c == '\t') {
+				next();
+			}
+		}
+
+		boolean atEnd() throws IOException {
+			return peek() < 0;
+		}
+
+		// Indica si no queda nada más en la línea actual, ignorando espacios.
+		boolean atLineEnd() throws IOException {
+			skipBlanks();
+			int c = peek();
+			return c < 0 || c == '\n' || c == '\r';
+		}
+
+		// Consume el separador si es el siguiente carácter (ignorando espacios) y devuelve si lo hizo.
+		boolean consume(char separator) throws IOException {
+			skipBlanks();
+			if (peek() == separator) {
+				next();
+				return true;
+			}
+			return false;
+		}
+
+		// Exige el fin de la línea actual (o del archivo) después de 'what'.
+		void endLine(String what) throws IOException {
+			skipBlanks();
+			if (peek() == '\r') {
+				next();
+			}
+			int c = peek();
+			if (c >= 0 && c != '\n') {
+				throw error("carácter inesperado '" + (char) c + "' después de " + what);
+			}
+			next();
+		}
+
+		int readInt(String what, int min, int max) throws IOException {
+			skipBlanks();
+			int startLine = line;
+			int startColumn = column;
+			int c = peek();
+			if (c < '0' || c > '9') {
+				throw new AFNFormatException(startLine, startColumn, "se esperaba " + what
+						+ (c < 0 ? " y se encontró el fin del archivo" : c == '\n' || c == '\r' ? " y se encontró el fin de la línea" : " y se encontró '" + (char) c + "'"));
+			}
+			long value = 0;
+			while ((c = peek()) >= '0' && c <= '9') {
+				next();
+				value = value * 10 + (c - '0');
+				if (value > max) {
+					while ((c = peek()) >= '0' && c <= '9') {
+						next();
+					}
+					break;
+				}
+			}
+			if (value < min || value > max) {
+				throw new AFNFormatException(startLine, startColumn, what + " fuera de rango: debe estar entre " + min + " y " + max);
+			}
+			return (int) value;
+		}
+
+		// Lee un símbolo del alfabeto (bytes UTF-8 hasta la siguiente coma o el fin de la línea).
+		String readSymbol() throws IOException {
+			int startLine = line;
+			int startColumn = column;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			int c;
+			while ((c = peek()) >= 0 && c != ',' && c != '\n' && c != '\r') {
+				bytes.write(next());
+			}
+			if (bytes.size() == 0) {
+				throw new AFNFormatException(startLine, startColumn, "símbolo vacío en el alfabeto");
+			}
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+
+		AFNFormatException error(String message) {
+			return new AFNFormatException(line, column, message);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	// Estados co-alcanzables: recorrido en anchura hacia atrás desde los estados de aceptación por todas las transiciones.
+	private long[] computeLiveStates() {
+		int stateCount = maxStates + 1;
+		int[] reverseOffsets = new int[stateCount + 1];
+		for (int symbolIndex = 0; symbolIndex <= alphabet.length; symbolIndex++) {
+			int[] offsets = transitionOffsets[symbolIndex];
+			int[] targets = transitionTargets[symbolIndex];
+			for (int k = 0; k < offsets[stateCount]; k++) {
+				reverseOffsets[targets[k] + 1]++;
+			}
+		}
+		for (int state = 0; state < stateCount; state++) {
+			reverseOffsets[state + 1] += reverseOffsets[state];
+		}
+		int[] fill = Arrays.copyOf(reverseOffsets, stateCount);
+		int[] reverseSources = new int[reverseOffsets[stateCount]];
+		for (int symbolIndex = 0; symbolIndex <= alphabet.length; symbolIndex++) {
+			int[] offsets = transitionOffsets[symbolIndex];
+			int[] targets = transitionTargets[symbolIndex];
+			for (int state = 0; state < stateCount; state++) {
+				for (int k = offsets[state]; k < offsets[state + 1]; k++) {
+					reverseSources[fill[targets[k]]++] = state;
+				}
+			}
+		}
+
+		long[] live = acceptanceMask.clone();
+		int[] queue = new int[stateCount];
+		int tail = toSortedStates(live, queue);
+		for (int head = 0; head < tail; head++) {
+			int state = queue[head];
+			for (int k = reverseOffsets[state]; k < reverseOffsets[state + 1]; k++) {
+				int source = reverseSources[k];
+				if ((live[source >>> 6] & (1L << source)) == 0) {
+					live[source >>> 6] |= 1L << source;
+					queue[tail++] = source;
+				}
+			}
+		}
+		return live;
+	}
+
+	/*
+		Imagen binaria del AFN (enteros big-endian):
+			magic, versión, maxStates, cantidad de símbolos,
+			cada símbolo como (longitud en bytes, UTF-8),
+			bitmap de aceptación (cantidad de longs, longs),
+			por cada símbolo incluido lambda: (cantidad de destinos, maxStates + 2 offsets, destinos),
+			clausuras lambda no triviales: (cantidad, y por cada una: estado, cantidad de miembros, miembros).
+	*/
+	public void saveCompiledAFN(String path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+			out.writeInt(COMPILED_MAGIC);
+			out.writeInt(COMPILED_VERSION);
+			out.writeInt(maxStates);
+			out.writeInt(alphabet.length);
+			for (String symbol : alphabet) {
+				byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(acceptanceMask.length);
+			for (long word : acceptanceMask) {
+				out.writeLong(word);
+			}
+
+			for (int symbolIndex = 0; symbolIndex <= alphabet.length; symbolIndex++) {
+				out.writeInt(transitionTargets[symbolIndex].length);
+				for (int offset : transitionOffsets[symbolIndex]) {
+					out.writeInt(offset);
+				}
+				for (int target : transitionTargets[symbolIndex]) {
+					out.writeInt(target);
+				}
+			}
+
+			int nonTrivial = 0;
+			for (int state = 0; state <= maxStates; state++) {
+				if (closureOffsets[state + 1] - closureOffsets[state] > 1) {
+					nonTrivial++;
+				}
+			}
+			out.writeInt(nonTrivial);
+			for (int state = 0; state <= maxStates; state++) {
+				int count = closureOffsets[state + 1] - closureOffsets[state];
+				if (count > 1) {
+					out.writeInt(state);
+					out.writeInt(count);
+					for (int i = closureOffsets[state]; i < closureOffsets[state + 1]; i++) {
+						out.writeInt(closureMembers[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+		Carga una imagen binaria generada por saveCompiledAFN mapeándola en memoria. Los arreglos de transiciones
+		se copian en bloque desde el archivo mapeado, sin interpretar texto ni recalcular las clausuras lambda.
+		Antes de copiar cada bloque se comprueba que quepa en lo que queda del archivo, y después que los estados,
+		offsets y clausuras sean coherentes; una imagen truncada o dañada se reporta con una IOException que
+		indica en qué byte se detectó el problema.
+	*/
+	public void loadCompiledAFN(String path) throws IOException {
+		MappedByteBuffer image;
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException(path);
+		}
+
+		try {
+			readCompiledAFN(image, path);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Imagen binaria truncada en el byte " + image.position() + ": " + path, e);
+		}
+		compileSimulation(true);
+	}
+
+	private void readCompiledAFN(ByteBuffer image, String path) throws IOException {
+		if (image.remaining() < 8 || image.getInt() != COMPILED_MAGIC) {
+			throw new IOException("El archivo no es una imagen binaria de AFN: " + path);
+		}
+		int version = image.getInt();
+		if (version != COMPILED_VERSION) {
+			throw new IOException("Versión de imagen binaria no soportada: " + version + " (se esperaba " + COMPILED_VERSION + ")");
+		}
+
+		maxStates = readImageInt(image, "la cantidad de estados", 1, Integer.MAX_VALUE - 2);
+		int symbolCount = readImageInt(image, "la cantidad de símbolos", 1, Integer.MAX_VALUE - 1);
+		requireImageBytes(image, 5L * symbolCount, "el alfabeto"); // Cada símbolo ocupa al menos 5 bytes
+		alphabet = new String[symbolCount];
+		for (int i = 0; i < alphabet.length; i++) {
+			byte[] bytes = new byte[readImageInt(image, "la longitud de un símbolo", 1, image.remaining())];
+			image.get(bytes);
+			alphabet[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		int words = (maxStates + 64) >>> 6;
+		int acceptanceWordCount = readImageInt(image, "la cantidad de palabras del bitmap de aceptación", words, words);
+		requireImageBytes(image, 8L * acceptanceWordCount, "el bitmap de aceptación");
+		long[] acceptanceWords = new long[acceptanceWordCount];
+		image.asLongBuffer().get(acceptanceWords);
+		image.position(image.position() + 8 * acceptanceWords.length);
+		acceptanceStates = new boolean[maxStates + 1];
+		for (int state = 0; state <= maxStates; state++) {
+			acceptanceStates[state] = (acceptanceWords[state >>> 6] & (1L << state)) != 0;
+		}
+
+		int maxSymbols = alphabet.length + 1;
+		transitionOffsets = new int[maxSymbols][];
+		transitionTargets = new int[maxSymbols][];
+		for (int symbolIndex = 0; symbolIndex < maxSymbols; symbolIndex++) {
+			String what = "las transiciones del símbolo " + (symbolIndex == 0 ? "lambda" : "'" + alphabet[symbolIndex - 1] + "'");
+			int targetCount = readImageInt(image, "la cantidad de destinos de " + what, 0, Integer.MAX_VALUE);
+			requireImageBytes(image, 4L * (maxStates + 2) + 4L * targetCount, what);
+			int[] offsets = readInts(image, maxStates + 2);
+			int[] targets = readInts(image, targetCount);
+			// Los offsets empiezan en 0, no decrecen y terminan en la cantidad de destinos.
+			if (offsets[0] != 0 || offsets[maxStates + 1] != targetCount) {
+				throw invalidImage(image, "los offsets de " + what + " deben ir de 0 a " + targetCount);
+			}
+			for (int state = 0; state <= maxStates; state++) {
+				if (offsets[state] > offsets[state + 1]) {
+					throw invalidImage(image, "los offsets de " + what + " decrecen en el estado " + state);
+				}
+			}
+			for (int target : targets) {
+				if (target < 0 || target >= maxStates) {
+					throw invalidImage(image, "estado destino " + target + " fuera de rango en " + what
+							+ ": debe estar entre 0 y " + (maxStates - 1));
+				}
+			}
+			transitionOffsets[symbolIndex] = offsets;
+			transitionTargets[symbolIndex] = targets;
+		}
+
+		// Las clausuras no triviales vienen en orden ascendente de estado; el resto es solo el propio estado.
+		closureOffsets = new int[maxStates + 2];
+		closureMembers = new int[maxStates + 1];
+		int memberCount = 0;
+		int nonTrivial = readImageInt(image, "la cantidad de clausuras lambda", 0, maxStates + 1);
+		int nextState = nonTrivial > 0 ? readImageInt(image, "el estado de una clausura lambda", 0, maxStates) : -1;
+		for (int state = 0; state <= maxStates; state++) {
+			closureOffsets[state] = memberCount;
+			if (state == nextState) {
+				int count = readImageInt(image, "el tamaño de la clausura lambda del estado " + state, 2, maxStates + 1);
+				requireImageBytes(image, 4L * count, "la clausura lambda del estado " + state);
+				if (memberCount + count > closureMembers.length) {
+					closureMembers = Arrays.copyOf(closureMembers, Math.max(closureMembers.length * 2, memberCount + count));
+				}
+				image.asIntBuffer().get(closureMembers, memberCount, count);
+				image.position(image.position() + 4 * count);
+				// 'addClosure' supone que cada clausura contiene a su propio estado.
+				boolean containsState = false;
+				for (int i = memberCount; i < memberCount + count; i++) {
+					int member = closureMembers[i];
+					if (member < 0 || member > maxStates) {
+						throw invalidImage(image, "estado " + member + " fuera de rango en la clausura lambda del estado " + state);
+					}
+					containsState |= member == state;
+				}
+				if (!containsState) {
+					throw invalidImage(image, "la clausura lambda del estado " + state + " no contiene al propio estado");
+				}
+				memberCount += count;
+				nextState = --nonTrivial > 0 ? readImageInt(image, "el estado de una clausura lambda", state + 1, maxStates) : -1;
+			} else {
+				if (memberCount == closureMembers.length) {
+					closureMembers = Arrays.copyOf(closureMembers, closureMembers.length * 2);
+				}
+				closureMembers[memberCount++] = state;
+			}
+		}
+		closureOffsets[maxStates + 1] = memberCount;
+		closureMembers = Arrays.copyOf(closureMembers, memberCount);
+
+		if (image.hasRemaining()) {
+			throw invalidImage(image, image.remaining() + " bytes sobrantes al final de la imagen");
+		}
+	}
+
+	// Lee un entero de la imagen y comprueba que esté entre 'min' y 'max'.
+	private static int readImageInt(ByteBuffer image, String what, long min, long max) throws IOException {
+		requireImageBytes(image, 4, what);
+		int value = image.getInt();
+		if (value < min || value > max) {
+			image.position(image.position() - 4);
+			throw invalidImage(image, what + " fuera de rango: " + value + " (debe estar entre " + min + " y " + max + ")");
+		}
+		return value;
+	}
+
+	private static void requireImageBytes(ByteBuffer image, long bytes, String what) throws IOException {
+		if (bytes > image.remaining()) {
+			throw new IOException("Imagen binaria truncada en el byte " + image.position() + ": faltan "
+					+ (bytes - image.remaining()) + " bytes para " + what);
+		}
+	}
+
+	private static IOException invalidImage(ByteBuffer image, String message) {
+		return new IOException("Imagen binaria inválida en el byte " + image.position() + ": " + message);
+	}
+
+	private static int[] readInts(ByteBuffer image, int count) {
+		int[] values = new int[count];
+		image.asIntBuffer().get(values);
+		image.position(image.position() + 4 * count);
+		return values;
+	}
+
+	private static boolean isCompiledImage(File file) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == COMPILED_MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Escribe el AFN en el formato de texto .afn. Las casillas sin destinos se escriben como el estado de error 0.
+	public void saveAFN(String path) throws FileNotFoundException {
+		try (PrintWriter out = new PrintWriter(path)) {
+			out.println(String.join(",", alphabet));
+			out.println(maxStates);
+
+			StringJoiner acceptStatesJoiner = new StringJoiner(",");
+			for (int state = 0; state < acceptanceStates.length; state++) {
+				if (acceptanceStates[state]) {
+					acceptStatesJoiner.add(Integer.toString(state));
+				}
+			}
+			out.println(acceptStatesJoiner.toString());
+
+			for (int symbolIndex = 0; symbolIndex <= alphabet.length; symbolIndex++) {
+				int[] offsets = transitionOffsets[symbolIndex];
+				int[] targets = transitionTargets[symbolIndex];
+				StringJoiner rowJoiner = new StringJoiner(",");
+				for (int state = 0; state < maxStates; state++) {
+					StringJoiner cellJoiner = new StringJoiner(";");
+					for (int k = offsets[state]; k < offsets[state + 1]; k++) {
+						cellJoiner.add(Integer.toString(targets[k]));
+					}
+					rowJoiner.add(cellJoiner.length() > 0 ? cellJoiner.toString() : "0");
+				}
+				out.println(rowJoiner.toString());
+			}
+		}
+	}
+
+	/*
+		Optimiza el AFN ya cargado sin cambiar el lenguaje que acepta:
+		1. Elimina las transiciones lambda: desde cada estado, un símbolo lleva a los destinos de toda su clausura
+		   lambda, y el estado es de aceptación si su clausura contiene alguno.
+		2. Descarta los estados que no se alcanzan desde el estado 1 o desde los que no se llega a aceptación.
+		3. Renumera los estados en el orden en que los descubre un recorrido en anchura desde el estado 1, para que
+		   los estados que se visitan juntos queden cerca. El estado 0 queda como estado de error sin transiciones.
+		Devuelve un reporte con la cantidad de estados y transiciones antes y después.
+	*/
+	public OptimizationReport optimize() {
+		int stateCount = maxStates + 1; // Incluye la fila extra 'maxStates', que no tiene transiciones
+		int symbols = alphabet.length;
+		int statesBefore = countStates();
+		int transitionsBefore = countTransitions();
+
+		// 1. Eliminación de lambda sobre la numeración original.
+		boolean[] accepting = new boolean[stateCount];
+		for (int state = 0; state < stateCount; state++) {
+			for (int i = closureOffsets[state]; i < closureOffsets[state + 1] && !accepting[state]; i++) {
+				accepting[state] = acceptanceStates[closureMembers[i]];
+			}
+		}
+		int[][] offsets = new int[symbols + 1][];
+		int[][] targets = new int[symbols + 1][];
+		int[] seen = new int[stateCount];
+		int stamp = 0;
+		for (int symbolIndex = 1; symbolIndex <= symbols; symbolIndex++) {
+			int[] oldOffsets = transitionOffsets[symbolIndex];
+			int[] oldTargets = transitionTargets[symbolIndex];
+			int[] rowOffsets = new int[stateCount + 1];
+			int[] rowTargets = new int[oldTargets.length];
+			int count = 0;
+			for (int state = 0; state < stateCount; state++) {
+				rowOffsets[state] = count;
+				stamp++;
+				for (int i = closureOffsets[state]; i < closureOffsets[state + 1]; i++) {
+					int member = closureMembers[i];
+					for (int k = oldOffsets[member]; k < oldOffsets[member + 1]; k++) {
+						int target = oldTargets[k];
+						if (seen[target] != stamp) {
+							seen[target] = stamp;
+							if (count == rowTargets.length) {
+								rowTargets = Arrays.copyOf(rowTargets, Math.max(16, count * 2));
+							}
+							rowTargets[count++] = target;
+						}
+					}
+				}
+			}
+			rowOffsets[stateCount] = count;
+			offsets[symbolIndex] = rowOffsets;
+			targets[symbolIndex] = rowTargets;
+		}
+
+		// 2. Estados alcanzables desde 1, en orden de descubrimiento (símbolos en orden, destinos en orden).
+		int[] order = new int[stateCount];
+		boolean[] reachable = new boolean[stateCount];
+		int reached = 0;
+		order[reached++] = 1;
+		reachable[1] = true;
+		for (int head = 0; head < reached; head++) {
+			int state = order[head];
+			for (int symbolIndex = 1; symbolIndex <= symbols; symbolIndex++) {
+				for (int k = offsets[symbolIndex][state]; k < offsets[symbolIndex][state + 1]; k++) {
+					int target = targets[symbolIndex][k];
+					if (!reachable[target]) {
+						reachable[target] = true;
+						order[reached++] = target;
+					}
+				}
+			}
+		}
+
+		// Estados co-alcanzables: recorrido hacia atrás desde los de aceptación, solo entre los alcanzables.
+		int[] reverseOffsets = new int[stateCount + 1];
+		for (int symbolIndex = 1; symbolIndex <= symbols; symbolIndex++) {
+			for (int k = 0; k < offsets[symbolIndex][stateCount]; k++) {
+				reverseOffsets[targets[symbolIndex][k] + 1]++;
+			}
+		}
+		for (int state = 0; state < stateCount; state++) {
+			reverseOffsets[state + 1] += reverseOffsets[state];
+		}
+		int[] fill = Arrays.copyOf(reverseOffsets, stateCount);
+		int[] reverseSources = new int[reverseOffsets[stateCount]];
+		for (int symbolIndex = 1; symbolIndex <= symbols; symbolIndex++) {
+			for (int state = 0; state < stateCount; state++) {
+				for (int k = offsets[symbolIndex][state]; k < offsets[symbolIndex][state + 1]; k++) {
+					reverseSources[fill[targets[symbolIndex][k]]++] = state;
+				}
+			}
+		}
+		boolean[] useful = new boolean[stateCount];
+		int[] queue = new int[stateCount];
+		int tail = 0;
+		for (int state = 0; state < stateCount; state++) {
+			if (reachable[state] && accepting[state]) {
+				useful[state] = true;
+				queue[tail++] = state;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			int state = queue[head];
+			for (int k = reverseOffsets[state]; k < reverseOffsets[state + 1]; k++) {
+				int source = reverseSources[k];
+				if (reachable[source] && !useful[source]) {
+					useful[source] = true;
+					queue[tail++] = source;
+				}
+			}
+		}
+
+		// 3. Nueva numeración: 0 es el error, 1 el inicial y el resto en orden de descubrimiento.
+		int[] renumber = new int[stateCount];
+		Arrays.fill(renumber, -1);
+		int newStateCount = 2;
+		renumber[1] = 1;
+		for (int i = 1; i < reached; i++) {
+			if (useful[order[i]]) {
+				renumber[order[i]] = newStateCount++;
+			}
+		}
+		int[] oldOf = new int[newStateCount];
+		for (int state = 0; state < stateCount; state++) {
+			if (renumber[state] > 0) {
+				oldOf[renumber[state]] = state;
+			}
+		}
+
+		boolean[] newAcceptance = new boolean[newStateCount + 1];
+		for (int state = 1; state < newStateCount; state++) {
+			newAcceptance[state] = accepting[oldOf[state]];
+		}
+		int[][] newOffsets = new int[symbols + 1][];
+		int[][] newTargets = new int[symbols + 1][];
+		newOffsets[0] = new int[newStateCount + 2];
+		newTargets[0] = new int[0];
+		for (int symbolIndex = 1; symbolIndex <= symbols; symbolIndex++) {
+			int[] rowOffsets = new int[newStateCount + 2];
+			int[] rowTargets = new int[offsets[symbolIndex][stateCount]];
+			int count = 0;
+			for (int state = 1; state < newStateCount; state++) {
+				rowOffsets[state] = count;
+				int old = oldOf[state];
+				if (!useful[old]) {
+					continue; // El estado inicial sin camino a aceptación no necesita transiciones
+				}
+				int first = count;
+				for (int k = offsets[symbolIndex][old]; k < offsets[symbolIndex][old + 1]; k++) {
+					int target = renumber[targets[symbolIndex][k]];
+					if (target > 0 && useful[oldOf[target]]) {
+						rowTargets[count++] = target;
+					}
+				}
+				Arrays.sort(rowTargets, first, count);
+			}
+			rowOffsets[newStateCount] = count;
+			rowOffsets[newStateCount + 1] = count;
+			newOffsets[symbolIndex] = rowOffsets;
+			newTargets[symbolIndex] = Arrays.copyOf(rowTargets, count);
+		}
+
+		maxStates = newStateCount;
+		acceptanceStates = newAcceptance;
+		transitionOffsets = newOffsets;
+		transitionTargets = newTargets;
+		compileSimulation(false);
+
+		return new OptimizationReport(statesBefore, transitionsBefore, countStates(), countTransitions());
+	}
+
+	// Estados sin contar el estado de error 0.
+	private int countStates() {
+		return maxStates - 1;
+	}
+
+	// Transiciones (incluidas las lambda) hacia estados distintos del estado de error 0.
+	private int countTransitions() {
+		int count = 0;
+		for (int[] targets : transitionTargets) {
+			for (int target : targets) {
+				if (target != 0) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	// Resultado de 'optimize': estados y transiciones antes y después de optimizar.
+	public static final class OptimizationReport {
+		public final int statesBefore;
+		public final int transitionsBefore;
+		public final int statesAfter;
+		public final int transitionsAfter;
+
+		OptimizationReport(int statesBefore, int transitionsBefore, int statesAfter, int transitionsAfter) {
+			this.statesBefore = statesBefore;
+			this.transitionsBefore = transitionsBefore;
+			this.statesAfter = statesAfter;
+			this.transitionsAfter = transitionsAfter;
+		}
+
+		@Override
+		public String toString() {
+			return "AFN optimizado: " + statesBefore + " -> " + statesAfter + " estados, "
+					+ transitionsBefore + " -> " + transitionsAfter + " transiciones";
+		}
+	}
+
+	/*
+		Calcula la clausura lambda de cada estado con un recorrido en profundidad sobre las transiciones lambda.
+		Las clausuras se guardan como listas ordenadas para que la memoria dependa de su tamaño y no del cuadrado
+		de la cantidad de estados (en el formato .afn casi todas las casillas lambda apuntan al estado 0).
+	*/
+	private void computeLambdaClosures() {
+		int stateCount = maxStates + 1;
+		int[] lambdaOffsets = transitionOffsets[0];
+		int[] lambdaTargets = transitionTargets[0];
+		closureOffsets = new int[stateCount + 1];
+		closureMembers = new int[stateCount];
+		int memberCount = 0;
+		long[] visited = new long[stateWords];
+		int[] stack = new int[stateCount];
+		int[] found = new int[stateCount];
+		for (int state = 0; state < stateCount; state++) {
+			closureOffsets[state] = memberCount;
+			visited[state >>> 6] |= 1L << state;
+			int size = 0;
+			int top = 0;
+			found[size++] = state;
+			stack[top++] = state;
+			while (top > 0) {
+				int current = stack[--top];
+				for (int k = lambdaOffsets[current]; k < lambdaOffsets[current + 1]; k++) {
+					int next = lambdaTargets[k];
+					if ((visited[next >>> 6] & (1L << next)) == 0) {
+						visited[next >>> 6] |= 1L << next;
+						stack[top++] = next;
+						found[size++] = next;
+					}
+				}
+			}
+
+			Arrays.sort(found, 0, size);
+			if (memberCount + size > closureMembers.length) {
+				closureMembers = Arrays.copyOf(closureMembers, Math.max(closureMembers.length * 2, memberCount + size));
+			}
+			for (int i = 0; i < size; i++) {
+				closureMembers[memberCount++] = found[i];
+				visited[found[i] >>> 6] = 0L; // Limpia solo las palabras usadas por esta clausura
+			}
+		}
+		closureOffsets[stateCount] = memberCount;
+		closureMembers = Arrays.copyOf(closureMembers, memberCount);
+	}
+
+	// Método para imprimir tabla de transiciones, útil para depuración
+	public void printTransitionsTable(int maxSymbols, int maxStates) {
+		System.out.format("%-10s %-20s %s%n", "Símbolo", "Estado", "Transiciones");
+		printMagenta(true, "---------------------------------------------------------");
+		for (int i = 0; i < maxSymbols; i++) {
+			String symbol = (i == 0) ? "λ" : alphabet[i - 1];
+			for (int j = 0; j < maxStates; j++) {
+				int start = transitionOffsets[i][j];
+				int end = transitionOffsets[i][j + 1];
+				StringBuilder transitionDescription = new StringBuilder();
+				for (int k = start; k < end; k++) {
+					transitionDescription.append(transitionTargets[i][k] + ", ");
+				}
+				if (transitionDescription.length() > 0)
+					transitionDescription.setLength(transitionDescription.length() - 2);
+				else
+					transitionDescription.append("{}");
+				System.out.format("%-10s %-20s %s%n", "'" + symbol + "'", "Estado " + j, transitionDescription.toString());
+			}
+			System.out.println();
+		}
+	}
+
+	/*
+		Implemente el metodo accept, que recibe como argumento
+		un String que representa la cuerda a evaluar, y devuelve
+		un boolean dependiendo de si la cuerda es aceptada o no
+		por el AFN. Recuerde lo aprendido en el proyecto 1.
+	*/
+	public boolean accept(String string) {
+		Matcher matcher = acceptMatchers.get();
+		if (matcher == null || matcher.generation != compiledGeneration) {
+			matcher = new Matcher();
+			acceptMatchers.set(matcher);
+		}
+		AFNMetrics metrics = this.metrics;
+		if (metrics != null) {
+			return acceptMeasured(matcher, string, metrics);
+		}
+		return matcher.reset().matches(string);
+	}
+
+	// 'accept' con métricas activas: evalúa con el mismo Matcher, que cuenta cada paso en su Tally.
+	private boolean acceptMeasured(Matcher matcher, String string, AFNMetrics metrics) {
+		AFNMetrics.AcceptEvent event = new AFNMetrics.AcceptEvent();
+		event.begin();
+		LazyDFA cache = lazyDFABudget > 0 ? lazyDFA() : null;
+		long closureBefore = cache != null ? cache.closureIterations : 0;
+		if (matcher.tally == null) {
+			matcher.tally = new AFNMetrics.Tally();
+		}
+		AFNMetrics.Tally tally = matcher.tally;
+		tally.activeSet(countStates(initialStates));
+
+		matcher.reset();
+		matcher.measuring = true;
+		boolean accepted;
+		try {
+			accepted = matcher.matches(string);
+		} finally {
+			matcher.measuring = false;
+		}
+		int consumed = matcher.consumed;
+		tally.characters += consumed;
+		tally.string(accepted, consumed == string.length());
+		if (cache != null) {
+			tally.closureIterations += cache.closureIterations - closureBefore;
+		}
+		int maxActiveStates = tally.maxActiveStates;
+		long closureIterations = tally.closureIterations;
+		metrics.add(tally);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.length = string.length();
+			event.consumed = consumed;
+			event.accepted = accepted;
+			event.maxActiveStates = maxActiveStates;
+			event.closureIterations = closureIterations;
+			event.commit();
+		}
+		return accepted;
+	}
+
+	private static int countStates(long[] states) {
+		int count = 0;
+		for (long word : states) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	// Activa las métricas de este AFN (si no lo estaban) y las devuelve.
+	public synchronized AFNMetrics enableMetrics() {
+		if (metrics == null) {
+			metrics = new AFNMetrics();
+		}
+		return metrics;
+	}
+
+	public void disableMetrics() {
+		metrics = null;
+	}
+
+	// Métricas acumuladas, o null si están desactivadas.
+	public AFNMetrics getMetrics() {
+		return metrics;
+	}
+
+	// Crea un matcher incremental para evaluar una entrada que llega por partes.
+	public Matcher matcher() {
+		return new Matcher();
+	}
+
+	// Recibe cada token encontrado por 'scan' como un rango [start, end) de posiciones en bytes.
+	public interface TokenHandler {
+		void token(long start, long end) throws IOException;
+	}
+
+	// Ventana máxima que se mapea de una vez al escanear; ningún token puede ser más largo que esto.
+	private static final long SCAN_WINDOW = 1L << 30;
+
+	/*
+		Escanea el archivo (UTF-8) buscando tokens por la regla del más largo: desde cada posición se avanza mientras
+		el autómata no esté muerto y se reporta el prefijo aceptado más largo, es decir, el prefijo más largo que
+		'accept' aceptaría como cadena; el siguiente token empieza donde terminó el anterior. Si ningún prefijo no
+		vacío es aceptado se salta un byte. Cada prefijo se divide en símbolos como lo haría 'accept': si un símbolo
+		es prefijo de otro (por ejemplo "a" y "ab"), un prefijo que corta al símbolo más largo se divide con los más
+		cortos. El archivo se mapea en memoria por ventanas y el ciclo no reserva memoria por token. Devuelve la
+		cantidad de tokens encontrados.
+	*/
+	public long scan(String path, TokenHandler handler) throws IOException {
+		Matcher matcher = new Matcher();
+		long tokens = 0;
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long base = 0;
+			while (base < size) {
+				long length = Math.min(SCAN_WINDOW, size - base);
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+				tokens += matcher.scan(window, 0, base, base + length == size, handler);
+				base += matcher.scanned;
+			}
+		}
+		return tokens;
+	}
+
+	// Igual que scan(path, handler) sobre los bytes restantes del búfer; las posiciones son índices del búfer.
+	public long scan(ByteBuffer input, TokenHandler handler) throws IOException {
+		Matcher matcher = new Matcher();
+		long tokens = matcher.scan(input, input.position(), 0, true, handler);
+		input.position(input.limit());
+		return tokens;
+	}
+
+	/*
+		Evalúa el AFN de forma incremental: la entrada se entrega por partes (CharSequence, char[], CharBuffer
+		o ByteBuffer en UTF-8) y entre una parte y otra solo se conserva el conjunto de estados actual.
+		En cualquier momento se puede consultar si lo leído hasta ahí es aceptado (isAccepting) o si ya ninguna
+		continuación puede serlo (isDead); una vez muerto, el resto de la entrada se descarta sin procesarla.
+		Un Matcher no debe usarse desde varios hilos a la vez y deja de ser válido si el AFN se vuelve a cargar
+		o cambia el presupuesto del AFD perezoso.
+	*/
+	public final class Matcher {
+		private final int generation = compiledGeneration;
+		private final boolean lazyEnabled = lazyDFABudget > 0;
+		private boolean lazy; // Falso si no hay AFD perezoso o si esta entrada lo abandonó por no reutilizar la cache
+
+		// Con AFD perezoso: el conjunto actual (compartido con la cache, no se modifica) y su número en 'dfa'.
+		private LazyDFA dfa;
+		private int dfaEpoch;
+		private int dfaState;
+		private long[] dfaSet;
+		private boolean dfaAccepting;
+
+		// Ventana de detección de una cache que no se reutiliza (ver LAZY_DFA_CHECK_STEPS).
+		private int windowSteps;
+		private int windowEpoch;
+		private long windowMisses;
+		private int inputFlushes;
+
+		// Sin AFD perezoso: el conjunto actual como un solo long (hasta 64 estados) o como bitset.
+		private long smallStates;
+		private long[] currentStates;
+		private long[] nextStates;
+
+		// Para 'shorterSplitEnd': conjuntos auxiliares que no tocan el estado actual.
+		private long[] splitStates;
+		private long[] splitNext;
+
+		private boolean dead;
+		private int consumed; // Caracteres leídos de la entrada actual
+
+		// Con métricas activas 'accept' activa 'measuring' y el Matcher cuenta cada paso en 'tally'.
+		private boolean measuring;
+		private AFNMetrics.Tally tally;
+
+		// Con símbolos de varios caracteres: final de la entrada que todavía puede ser prefijo de un símbolo más largo.
+		private final StringBuilder pending;
+
+		// Para ByteBuffer: decodificador UTF-8 y bytes de un carácter partido entre dos llamadas.
+		private CharsetDecoder decoder;
+		private CharBuffer decoded;
+		private ByteBuffer carry;
+
+		private Matcher() {
+			if (!lazyEnabled && smallSteps == null) {
+				currentStates = new long[stateWords];
+				nextStates = new long[stateWords];
+			}
+			pending = symbolTrie != null ? new StringBuilder() : null;
+			reset();
+		}
+
+		// Vuelve al estado inicial para evaluar una nueva entrada.
+		public Matcher reset() {
+			checkGeneration();
+			lazy = lazyEnabled;
+			inputFlushes = 0;
+			consumed = 0;
+			if (lazy) {
+				dfa = null;
+				dfaSet = initialStates;
+				dfaAccepting = intersects(initialStates, acceptanceMask);
+			} else if (smallSteps != null) {
+				smallStates = initialStates[0];
+			} else {
+				System.arraycopy(initialStates, 0, currentStates, 0, stateWords);
+			}
+			dead = !intersects(initialStates, liveMask);
+			if (pending != null) {
+				pending.setLength(0);
+			}
+			if (decoder != null) {
+				decoder.reset();
+				carry.clear();
+			}
+			return this;
+		}
+
+		public Matcher feed(CharSequence chars) {
+			return feed(chars, 0, chars.length());
+		}
+
+		public Matcher feed(char[] chars, int offset, int length) {
+			return feed(CharBuffer.wrap(chars, offset, length), 0, length);
+		}
+
+		// Consume todos los caracteres restantes del búfer.
+		public Matcher feed(CharBuffer chars) {
+			feed(chars, 0, chars.remaining());
+			chars.position(chars.limit());
+			return this;
+		}
+
+		// Consume todos los bytes restantes como UTF-8; un carácter incompleto al final se completa en la siguiente llamada.
+		public Matcher feed(ByteBuffer bytes) {
+			checkGeneration();
+			if (dead) {
+				bytes.position(bytes.limit());
+				return this;
+			}
+			if (decoder == null) {
+				decoder = StandardCharsets.UTF_8.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+				decoded = CharBuffer.allocate(4096);
+				carry = ByteBuffer.allocate(8);
+			}
+			while (carry.position() > 0 && bytes.hasRemaining()) {
+				carry.put(bytes.get());
+				carry.flip();
+				decode(carry);
+				carry.compact();
+			}
+			decode(bytes);
+			carry.put(bytes);
+			return this;
+		}
+
+		private void decode(ByteBuffer bytes) {
+			CoderResult result;
+			do {
+				result = decoder.decode(bytes, decoded, false);
+				decoded.flip();
+				feed(decoded);
+				decoded.clear();
+			} while (result.isOverflow());
+		}
+
+		private Matcher feed(CharSequence chars, int start, int end) {
+			checkGeneration();
+			if (dead) {
+				return this;
+			}
+			if (pending != null && pending.length() > 0) {
+				pending.append(chars, start, end);
+				String buffered = pending.toString();
+				pending.setLength(0);
+				process(buffered, 0, buffered.length(), false);
+			} else {
+				process(chars, start, end, false);
+			}
+			return this;
+		}
+
+		// Evalúa la entrada completa desde el estado actual; la usa 'accept' después de reset.
+		boolean matches(CharSequence chars) {
+			process(chars, 0, chars.length(), true);
+			return !dead && currentAccepting();
+		}
+
+		// Indica si la entrada leída hasta ahora es aceptada por el AFN.
+		public boolean isAccepting() {
+			checkGeneration();
+			if (dead) {
+				return false;
+			}
+			if (pending == null || pending.length() == 0) {
+				return currentAccepting();
+			}
+
+			// Resuelve el final pendiente como si la entrada terminara aquí, sin perder el estado actual.
+			boolean savedLazy = lazy;
+			LazyDFA savedDfa = dfa;
+			int savedEpoch = dfaEpoch;
+			int savedState = dfaState;
+			long[] savedSet = dfaSet;
+			long savedSmall = smallStates;
+			long[] savedStates = currentStates != null ? currentStates.clone() : null;
+
+			String tail = pending.toString();
+			boolean accepting = matches(tail);
+
+			lazy = savedLazy;
+			dfa = savedDfa;
+			dfaEpoch = savedEpoch;
+			dfaState = savedState;
+			dfaSet = savedSet;
+			dfaAccepting = lazy && intersects(savedSet, acceptanceMask);
+			smallStates = savedSmall;
+			if (savedStates != null) {
+				System.arraycopy(savedStates, 0, currentStates, 0, stateWords);
+			}
+			pending.setLength(0);
+			pending.append(tail);
+			dead = false;
+			return accepting;
+		}
+
+		// Escribe en 'into' los estados de aceptación del conjunto actual, en orden ascendente, y devuelve cuántos son.
+		int acceptingStates(int[] into) {
+			if (dead) {
+				return 0;
+			}
+			if (!lazy && smallSteps != null) {
+				int count = 0;
+				for (long word = smallStates & acceptanceMask[0]; word != 0; word &= word - 1) {
+					into[count++] = Long.numberOfTrailingZeros(word);
+				}
+				return count;
+			}
+			long[] states = lazy ? dfaSet : currentStates;
+			int count = 0;
+			for (int w = 0; w < stateWords; w++) {
+				for (long word = states[w] & acceptanceMask[w]; word != 0; word &= word - 1) {
+					into[count++] = (w << 6) + Long.numberOfTrailingZeros(word);
+				}
+			}
+			return count;
+		}
+
+		// Indica si ninguna continuación de la entrada puede ser aceptada; desde ahí se puede dejar de leer.
+		public boolean isDead() {
+			checkGeneration();
+			return dead;
+		}
+
+		private boolean currentAccepting() {
+			if (lazy) {
+				return dfaAccepting;
+			}
+			if (smallSteps != null) {
+				return (smallStates & acceptanceMask[0]) != 0L;
+			}
+			return intersects(currentStates, acceptanceMask);
+		}
+
+		private void process(CharSequence chars, int start, int end, boolean endOfInput) {
+			if (lazy) {
+				syncLazyDFA();
+			}
+			int i = start;
+			while (i < end && !dead) {
+				long symbol = charSymbols != null ? nextSymbol(chars, i) : symbolTrie.match(chars, i, end);
+				if (!endOfInput && (symbol & SymbolTrie.INCOMPLETE) != 0) {
+					// El símbolo podría continuar en la siguiente parte de la entrada.
+					pending.append(chars, i, end);
+					break;
+				}
+				// Si el símbolo no está en el alfabeto, ninguna continuación puede ser aceptada.
+				int symbolIndex = (int) symbol;
+				if (symbolIndex == 0) {
+					dead = true;
+					break;
+				}
+				i += (int) ((symbol >>> 32) & SymbolTrie.LENGTH_MASK);
+				advance(symbolIndex);
+			}
+			consumed += i - start;
+			if (lazy) {
+				dfaSet = dfa.sets[dfaState];
+				dfaEpoch = dfa.epoch;
+				dfaAccepting = dfa.accepting[dfaState];
+				dfa.publishCounters();
+			}
+		}
+
+		private void advance(int symbolIndex) {
+			if (lazy) {
+				dfaState = dfa.next(dfaState, symbolIndex);
+				dead = dfa.dead[dfaState];
+				if (++windowSteps >= LAZY_DFA_CHECK_STEPS) {
+					checkThrashing();
+				}
+			} else if (smallSteps != null) {
+				// Hasta 64 estados: cada paso es un OR de máscaras precalculadas.
+				long[] steps = smallSteps[symbolIndex];
+				long next = 0L;
+				for (long word = smallStates; word != 0; word &= word - 1) {
+					next |= steps[Long.numberOfTrailingZeros(word)];
+				}
+				smallStates = next;
+				dead = (next & liveMask[0]) == 0L;
+			} else {
+				// Calcula el conjunto siguiente (ya cerrado bajo lambda) e intercambia los buffers.
+				long closureIterations = step(currentStates, symbolIndex, nextStates);
+				long[] swap = currentStates;
+				currentStates = nextStates;
+				nextStates = swap;
+				dead = !intersects(currentStates, liveMask);
+				if (measuring) {
+					tally.closureIterations += closureIterations;
+				}
+			}
+			if (measuring) {
+				tally.activeSet(lazy ? countStates(dfa.sets[dfaState])
+						: smallSteps != null ? Long.bitCount(smallStates) : countStates(currentStates));
+			}
+		}
+
+		// Bytes procesados por la última llamada a scan; una ventana puede terminar antes si un token la cruza.
+		private int scanned;
+		// Indica si la última búsqueda de token llegó al final de la ventana sin que el autómata muriera.
+		private boolean reachedLimit;
+
+		/*
+			Busca tokens en input[from, limit) y los reporta desplazados por 'offset'. Si no es la última ventana y
+			un token llega hasta el final, se detiene al inicio de ese token para que se vuelva a mapear desde ahí.
+		*/
+		private long scan(ByteBuffer input, int from, long offset, boolean lastWindow, TokenHandler handler) throws IOException {
+			checkGeneration();
+			if (lazy) {
+				syncLazyDFA();
+			}
+			CharSequence chars = byteSymbolTrie != null ? new ByteChars(input) : null;
+			int limit = input.limit();
+			long tokens = 0;
+			int position = from;
+			while (position < limit) {
+				int end = lazy && chars == null
+						? longestMatchLazy(input, position, limit)
+						: longestMatch(input, chars, position, limit, lastWindow);
+				if (reachedLimit && !lastWindow && position > from) {
+					break; // El token podría seguir en la siguiente ventana
+				}
+				if (end > position) {
+					handler.token(offset + position, offset + end);
+					tokens++;
+					position = end;
+				} else {
+					position++;
+				}
+			}
+			scanned = position - from;
+			if (lazy) {
+				dfaSet = dfa.sets[dfaState];
+				dfaEpoch = dfa.epoch;
+				dfaAccepting = dfa.accepting[dfaState];
+				dfa.publishCounters();
+			}
+			return tokens;
+		}
+
+		// Fin del token más largo que empieza en 'position', o -1 si ningún prefijo no vacío es aceptado.
+		private int longestMatch(ByteBuffer input, CharSequence chars, int position, int limit, boolean lastWindow) {
+			if (lazy) {
+				dfaState = dfa.start;
+			} else if (smallSteps != null) {
+				smallStates = initialStates[0];
+			} else {
+				System.arraycopy(initialStates, 0, currentStates, 0, stateWords);
+			}
+			dead = !intersects(initialStates, liveMask);
+
+			int end = -1;
+			int i = position;
+			while (i < limit && !dead) {
+				long symbol = chars == null ? (long) byteSymbols[input.get(i) & 0xFF] | (1L << 32) : byteSymbolTrie.match(chars, i, limit);
+				if ((symbol & SymbolTrie.INCOMPLETE) != 0 && !lastWindow) {
+					i = limit; // Un símbolo podría cruzar el final de la ventana
+					break;
+				}
+				int symbolIndex = (int) symbol;
+				if (symbolIndex == 0) {
+					break;
+				}
+				int length = (int) ((symbol >>> 32) & SymbolTrie.LENGTH_MASK);
+				if (length > 1 && chars != null && byteSymbolTrie.prefixSymbols) {
+					// Los prefijos que terminan dentro de este símbolo se dividen con símbolos más cortos.
+					end = Math.max(end, shorterSplitEnd(chars, i, i + length));
+				}
+				i += length;
+				advance(symbolIndex);
+				if (!dead && (lazy ? dfa.accepting[dfaState] : currentAccepting())) {
+					end = i;
+				}
+			}
+			reachedLimit = i == limit && !dead;
+			return end;
+		}
+
+		/*
+			Mayor 'e' en (from, to) tal que, desde el conjunto actual, chars[from, e) dividido como lo haría 'accept'
+			(siempre el símbolo más largo que no pase de 'e') lleva a aceptación, o -1 si no hay ninguno. 'to' es el
+			final del símbolo más largo que empieza en 'from', así que cada intento lee menos de un símbolo.
+		*/
+		private int shorterSplitEnd(CharSequence chars, int from, int to) {
+			if (splitStates == null) {
+				splitStates = new long[stateWords];
+				splitNext = new long[stateWords];
+			}
+			for (int e = to - 1; e > from; e--) {
+				long[] states = splitStates;
+				long[] next = splitNext;
+				if (lazy) {
+					System.arraycopy(dfa.sets[dfaState], 0, states, 0, stateWords);
+				} else if (smallSteps != null) {
+					states[0] = smallStates;
+				} else {
+					System.arraycopy(currentStates, 0, states, 0, stateWords);
+				}
+				boolean alive = true;
+				for (int j = from; j < e && alive; ) {
+					long symbol = byteSymbolTrie.match(chars, j, e);
+					int symbolIndex = (int) symbol;
+					if (symbolIndex == 0) {
+						alive = false;
+						break;
+					}
+					j += (int) ((symbol >>> 32) & SymbolTrie.LENGTH_MASK);
+					step(states, symbolIndex, next);
+					long[] swap = states;
+					states = next;
+					next = swap;
+					alive = intersects(states, liveMask);
+				}
+				if (alive && intersects(states, acceptanceMask)) {
+					return e;
+				}
+			}
+			return -1;
+		}
+
+		// Igual que longestMatch para el caso común (AFD perezoso y símbolos de un byte), con la cache consultada directamente.
+		private int longestMatchLazy(ByteBuffer input, int position, int limit) {
+			LazyDFA cache = dfa;
+			int symbols = cache.symbols;
+			int[] transitions = cache.transitions;
+			boolean[] deadStates = cache.dead;
+			boolean[] acceptingStates = cache.accepting;
+			int state = cache.start;
+			int end = -1;
+			int i = position;
+			long hits = 0;
+			boolean stopped = deadStates[state];
+			while (!stopped && i < limit) {
+				int symbolIndex = byteSymbols[input.get(i) & 0xFF];
+				if (symbolIndex == 0) {
+					stopped = true;
+					break;
+				}
+				i++;
+				int next = transitions[state * symbols + symbolIndex];
+				if (next >= 0) {
+					hits++;
+					state = next;
+				} else {
+					// La cache pudo crecer o vaciarse: se vuelven a leer sus arreglos.
+					state = cache.next(state, symbolIndex);
+					transitions = cache.transitions;
+					deadStates = cache.dead;
+					acceptingStates = cache.accepting;
+				}
+				if (deadStates[state]) {
+					stopped = true;
+				} else if (acceptingStates[state]) {
+					end = i;
+				}
+			}
+			cache.hits += hits;
+			dfaState = state;
+			dead = deadStates[state];
+			reachedLimit = !stopped;
+			windowSteps += i - position;
+			if (windowSteps >= LAZY_DFA_CHECK_STEPS) {
+				checkThrashing();
+			}
+			return end;
+		}
+
+		// Ubica el conjunto actual en el AFD perezoso de este hilo, que pudo vaciarse o ser otro desde la última llamada.
+		private void syncLazyDFA() {
+			LazyDFA current = lazyDFA();
+			if (current == dfa && current.epoch == dfaEpoch) {
+				return;
+			}
+			if (dfa == null) {
+				// Primera llamada de esta entrada: empieza la ventana de detección.
+				windowSteps = 0;
+				windowEpoch = current.epoch;
+				windowMisses = current.totalMisses;
+			}
+			dfa = current;
+			dfaState = dfaSet == initialStates ? current.start : current.locate(dfaSet);
+			dfaEpoch = current.epoch;
+		}
+
+		// Cierra la ventana de detección: abandona el AFD perezoso si la cache no se está reutilizando.
+		private void checkThrashing() {
+			inputFlushes += dfa.epoch - windowEpoch;
+			long misses = dfa.totalMisses - windowMisses;
+			if (inputFlushes > LAZY_DFA_MAX_FLUSHES || misses * 4 > (long) windowSteps * 3) {
+				abandonLazyDFA();
+				return;
+			}
+			windowSteps = 0;
+			windowEpoch = dfa.epoch;
+			windowMisses = dfa.totalMisses;
+		}
+
+		// Sigue la entrada simulando el AFN con bitsets desde el conjunto actual del AFD perezoso.
+		private void abandonLazyDFA() {
+			long[] states = dfa.sets[dfaState];
+			if (smallSteps != null) {
+				smallStates = states[0];
+			} else {
+				if (currentStates == null) {
+					currentStates = new long[stateWords];
+					nextStates = new long[stateWords];
+				}
+				System.arraycopy(states, 0, currentStates, 0, stateWords);
+			}
+			lazy = false;
+			dfa.publishCounters();
+			lazyDFAFallbacks.increment();
+		}
+
+		private void checkGeneration() {
+			if (generation != compiledGeneration) {
+				throw new IllegalStateException("El AFN cambió después de crear este Matcher; cree uno nuevo");
+			}
+		}
+	}
+
+	/*
+		Símbolo del alfabeto que empieza en 'position': devuelve (cantidad de caracteres << 32) | índice del símbolo,
+		o un índice 0 si ningún símbolo empieza ahí. Con símbolos de varios caracteres se toma el más largo.
+	*/
+	private long nextSymbol(CharSequence input, int position) {
+		if (charSymbols != null) {
+			char c = input.charAt(position);
+			return c < charSymbols.length ? (1L << 32) | charSymbols[c] : 0L;
+		}
+		return symbolTrie.match(input, position);
+	}
+
+	// Construye la tabla directa de símbolos de un carácter o, si hace falta, el trie de símbolos.
+	private void compileSymbols() {
+		compileByteSymbols();
+		charSymbols = null;
+		symbolTrie = null;
+		int maxChar = 0;
+		for (String symbol : alphabet) {
+			if (symbol.length() != 1) {
+				symbolTrie = new SymbolTrie(alphabet);
+				return;
+			}
+			maxChar = Math.max(maxChar, symbol.charAt(0));
+		}
+		// Alfabetos Latin-1 usan una tabla de 256 entradas; el resto, hasta el mayor carácter del alfabeto.
+		charSymbols = new int[Math.max(256, maxChar + 1)];
+		for (int i = 0; i < alphabet.length; i++) {
+			charSymbols[alphabet[i].charAt(0)] = i + 1;
+		}
+	}
+
+	private void compileByteSymbols() {
+		byteSymbols = null;
+		byteSymbolTrie = null;
+		String[] encoded = new String[alphabet.length];
+		boolean singleBytes = true;
+		for (int i = 0; i < alphabet.length; i++) {
+			encoded[i] = new String(alphabet[i].getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+			singleBytes &= encoded[i].length() == 1;
+		}
+		if (!singleBytes) {
+			byteSymbolTrie = new SymbolTrie(encoded);
+			return;
+		}
+		byteSymbols = new int[256];
+		for (int i = 0; i < alphabet.length; i++) {
+			byteSymbols[encoded[i].charAt(0)] = i + 1;
+		}
+	}
+
+	// Vista de un ByteBuffer como secuencia de caracteres de 0 a 255 (índices absolutos), para buscar en 'byteSymbolTrie'.
+	private static final class ByteChars implements CharSequence {
+		private final ByteBuffer bytes;
+		private final int offset;
+		private final int length;
+
+		ByteChars(ByteBuffer bytes) {
+			this(bytes, 0, bytes.limit());
+		}
+
+		private ByteChars(ByteBuffer bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("índice " + index + ", longitud " + length);
+			}
+			return (char) (bytes.get(offset + index) & 0xFF);
+		}
+
+		// Vista de un tramo sobre el mismo buffer, sin copiar los bytes.
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end) {
+				throw new IndexOutOfBoundsException("tramo " + start + ".." + end + ", longitud " + length);
+			}
+			return new ByteChars(bytes, offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) (bytes.get(offset + i) & 0xFF);
+			}
+			return new String(chars);
+		}
+	}
+
+	/*
+		Trie de los símbolos del alfabeto sobre unidades UTF-16. Cada nodo guarda sus hijos ordenados por carácter
+		(búsqueda binaria) y el índice del símbolo que termina en él, así que buscar no reserva memoria.
+	*/
+	private static final class SymbolTrie {
+		// Bit que indica que la búsqueda llegó al final de la entrada cuando un símbolo más largo aún era posible.
+		static final long INCOMPLETE = 1L << 62;
+		static final long LENGTH_MASK = 0x3FFFFFFFL;
+
+		private final char[][] labels;
+		private final int[][] children;
+		private final int[] symbols;
+		final boolean prefixSymbols; // Algún símbolo es prefijo propio de otro
+
+		SymbolTrie(String[] alphabet) {
+			List<TreeMap<Character, Integer>> nodes = new ArrayList<>();
+			List<Integer> nodeSymbols = new ArrayList<>();
+			nodes.add(new TreeMap<>());
+			nodeSymbols.add(0);
+			for (int i = 0; i < alphabet.length; i++) {
+				int node = 0;
+				for (char c : alphabet[i].toCharArray()) {
+					Integer child = nodes.get(node).get(c);
+					if (child == null) {
+						child = nodes.size();
+						nodes.get(node).put(c, child);
+						nodes.add(new TreeMap<>());
+						nodeSymbols.add(0);
+					}
+					node = child;
+				}
+				nodeSymbols.set(node, i + 1);
+			}
+
+			labels = new char[nodes.size()][];
+			children = new int[nodes.size()][];
+			symbols = new int[nodes.size()];
+			for (int node = 0; node < nodes.size(); node++) {
+				TreeMap<Character, Integer> edges = nodes.get(node);
+				labels[node] = new char[edges.size()];
+				children[node] = new int[edges.size()];
+				int k = 0;
+				for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+					labels[node][k] = edge.getKey();
+					children[node][k++] = edge.getValue();
+				}
+				symbols[node] = nodeSymbols.get(node);
+			}
+			boolean prefix = false;
+			for (int node = 1; node < symbols.length; node++) {
+				prefix |= symbols[node] != 0 && labels[node].length > 0;
+			}
+			prefixSymbols = prefix;
+		}
+
+		// Símbolo más largo que empieza en 'position', con el mismo formato que nextSymbol.
+		long match(CharSequence input, int position) {
+			return match(input, position, input.length()) & ~INCOMPLETE;
+		}
+
+		// Igual que match, pero sin leer más allá de 'end' y marcando INCOMPLETE si el trie podía seguir.
+		long match(CharSequence input, int position, int end) {
+			long best = 0L;
+			int node = 0;
+			for (int i = position; i < end; i++) {
+				int k = Arrays.binarySearch(labels[node], input.charAt(i));
+				if (k < 0) {
+					return best;
+				}
+				node = children[node][k];
+				if (symbols[node] != 0) {
+					best = ((long) (i + 1 - position) << 32) | symbols[node];
+				}
+			}
+			return labels[node].length > 0 ? best | INCOMPLETE : best;
+		}
+	}
+
+	// AFD perezoso del hilo actual, creado de nuevo si el AFN o el presupuesto cambiaron.
+	private LazyDFA lazyDFA() {
+		LazyDFA dfa = lazyDFAs.get();
+		if (dfa == null || dfa.generation != compiledGeneration) {
+			dfa = new LazyDFA(compiledGeneration, lazyDFABudget);
+			lazyDFAs.set(dfa);
+		}
+		return dfa;
+	}
+
+	// Descarta el Matcher de 'accept' y el AFD perezoso del hilo actual, por ejemplo cuando el hilo deja de usar
+	// este AFN porque se reemplazó por una versión recargada y no debe seguir reteniéndolo.
+	void releaseThreadState() {
+		acceptMatchers.remove();
+		lazyDFAs.remove();
+	}
+
+	/*
+		Configura el presupuesto de memoria (en bytes, por hilo) del AFD perezoso usado por 'accept'.
+		Cuando la cache se llena se vacía por completo y se reconstruye a partir del estado actual.
+		Un presupuesto de 0 desactiva la cache y 'accept' simula el AFN directamente.
+	*/
+	public void setLazyDFABudget(long budgetBytes) {
+		if (budgetBytes < 0) {
+			throw new IllegalArgumentException("El presupuesto del AFD perezoso no puede ser negativo: " + budgetBytes);
+		}
+		lazyDFABudget = budgetBytes;
+		compiledGeneration++;
+	}
+
+	public long getLazyDFABudget() {
+		return lazyDFABudget;
+	}
+
+	// Transiciones del AFD perezoso resueltas desde la cache, acumuladas en todos los hilos.
+	public long getLazyDFAHits() {
+		return lazyDFAHits.sum();
+	}
+
+	// Transiciones del AFD perezoso que tuvieron que calcularse simulando el AFN.
+	public long getLazyDFAMisses() {
+		return lazyDFAMisses.sum();
+	}
+
+	// Veces que la cache se llenó y tuvo que vaciarse.
+	public long getLazyDFAFlushes() {
+		return lazyDFAFlushes.sum();
+	}
+
+	// Entradas que dejaron el AFD perezoso a mitad de camino porque la cache no se estaba reutilizando.
+	public long getLazyDFAFallbacks() {
+		return lazyDFAFallbacks.sum();
+	}
+
+	// AFD construido bajo demanda por construcción de subconjuntos. Cada instancia pertenece a un solo hilo.
+	private final class LazyDFA {
+		private static final int UNKNOWN = -1;
+		private static final int INITIAL_CAPACITY = 64;
+
+		final int generation;
+		final int symbols = alphabet.length + 1;
+		final int maxCapacity;
+		final long[] scratch = new long[stateWords];
+
+		long[][] sets; // Conjunto de estados del AFN que representa cada estado del AFD
+		int[] transitions; // transitions[estado * symbols + símbolo], UNKNOWN si aún no se ha calculado
+		boolean[] accepting;
+		boolean[] dead; // Sin estados vivos: ninguna extensión de la cadena puede ser aceptada
+		int[] table; // Tabla hash de direccionamiento abierto: id + 1 de cada estado, 0 si la casilla está libre
+		int size;
+		int start;
+		int epoch; // Aumenta cada vez que la cache se vacía, invalidando los números de estado anteriores
+
+		long hits, misses, flushes;
+		long totalMisses; // Como 'misses', pero no se reinicia al publicar los contadores
+		long closureIterations; // Estados agregados por clausuras lambda al calcular transiciones nuevas (métricas)
+
+		LazyDFA(int generation, long budgetBytes) {
+			this.generation = generation;
+			// Costo aproximado por estado: el bitset, su fila de transiciones, las banderas y dos casillas de la tabla hash.
+			long bytesPerState = 16L + 8L * stateWords + 4L * symbols + 2L + 8L;
+			long capacity = Math.max(2L, budgetBytes / bytesPerState);
+			maxCapacity = (int) Math.min(capacity, (Integer.MAX_VALUE / 2) / symbols);
+			allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+			start = intern(initialStates);
+		}
+
+		int next(int state, int symbolIndex) {
+			int cached = transitions[state * symbols + symbolIndex];
+			if (cached != UNKNOWN) {
+				hits++;
+				return cached;
+			}
+			misses++;
+			totalMisses++;
+
+			closureIterations += step(sets[state], symbolIndex, scratch);
+			int target = find(scratch);
+			if (target < 0) {
+				if (size == maxCapacity) {
+					// Cache llena: se vacía y se reconstruye desde el estado inicial y el conjunto recién calculado.
+					flush();
+					return locate(scratch);
+				}
+				target = intern(scratch);
+			}
+			transitions[state * symbols + symbolIndex] = target;
+			return target;
+		}
+
+		// Número del conjunto en la cache; si no estaba se agrega, vaciando antes la cache si está llena.
+		int locate(long[] states) {
+			int id = find(states);
+			if (id >= 0) {
+				return id;
+			}
+			if (size == maxCapacity) {
+				flush();
+				id = find(states);
+				if (id >= 0) {
+					return id;
+				}
+			}
+			return intern(states);
+		}
+
+		private void flush() {
+			flushes++;
+			epoch++;
+			allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+			start = intern(initialStates);
+		}
+
+		private void allocate(int capacity) {
+			sets = new long[capacity][];
+			transitions = new int[capacity * symbols];
+			Arrays.fill(transitions, UNKNOWN);
+			accepting = new boolean[capacity];
+			dead = new boolean[capacity];
+			table = new int[Integer.highestOneBit(capacity) << 2];
+			size = 0;
+		}
+
+		private void grow() {
+			int capacity = (int) Math.min((long) sets.length * 2, maxCapacity);
+			sets = Arrays.copyOf(sets, capacity);
+			int oldLength = transitions.length;
+			transitions = Arrays.copyOf(transitions, capacity * symbols);
+			Arrays.fill(transitions, oldLength, transitions.length, UNKNOWN);
+			accepting = Arrays.copyOf(accepting, capacity);
+			dead = Arrays.copyOf(dead, capacity);
+			table = new int[Integer.highestOneBit(capacity) << 2];
+			for (int id = 0; id < size; id++) {
+				table[slot(sets[id])] = id + 1;
+			}
+		}
+
+		private int intern(long[] states) {
+			if (size == sets.length) {
+				grow();
+			}
+			int id = size++;
+			sets[id] = states.clone();
+			accepting[id] = intersects(states, acceptanceMask);
+			dead[id] = !intersects(states, liveMask);
+			table[slot(states)] = id + 1;
+			return id;
+		}
+
+		private int find(long[] states) {
+			int entry = table[slot(states)];
+			return entry - 1;
+		}
+
+		// Casilla donde está (o debería estar) el conjunto, usando sondeo lineal.
+		private int slot(long[] states) {
+			int mask = table.length - 1;
+			int index = hash(states) & mask;
+			while (table[index] != 0 && !Arrays.equals(sets[table[index] - 1], states)) {
+				index = (index + 1) & mask;
+			}
+			return index;
+		}
+
+		private int hash(long[] states) {
+			long h = 0;
+			for (long word : states) {
+				h = (h ^ word) * 0x9E3779B97F4A7C15L;
+			}
+			return (int) (h ^ (h >>> 32));
+		}
+
+		void publishCounters() {
+			if (hits != 0) {
+				lazyDFAHits.add(hits);
+				hits = 0;
+			}
+			if (misses != 0) {
+				lazyDFAMisses.add(misses);
+				misses = 0;
+			}
+			if (flushes != 0) {
+				lazyDFAFlushes.add(flushes);
+				flushes = 0;
+			}
+		}
+	}
+
+	// Calcula en 'nextStates' los estados alcanzables desde 'currentStates' con el símbolo dado, incluyendo sus clausuras lambda.
+	// Devuelve cuántos estados se agregaron al aplicar clausuras lambda (para las métricas).
+	private long step(long[] currentStates, int symbolIndex, long[] nextStates) {
+		Arrays.fill(nextStates, 0L);
+		long closureIterations = 0;
+		int[] offsets = transitionOffsets[symbolIndex];
+		int[] targets = transitionTargets[symbolIndex];
+		for (int w = 0; w < stateWords; w++) {
+			for (long word = currentStates[w]; word != 0; word &= word - 1) {
+				int state = (w << 6) + Long.numberOfTrailingZeros(word);
+				for (int k = offsets[state]; k < offsets[state + 1]; k++) {
+					closureIterations += addClosure(nextStates, targets[k]);
+				}
+			}
+		}
+		return closureIterations;
+	}
+
+	// Agrega al conjunto la clausura lambda del estado y devuelve su tamaño, o 0 si el estado ya estaba presente
+	// (en ese caso su clausura también lo está).
+	private int addClosure(long[] states, int state) {
+		if ((states[state >>> 6] & (1L << state)) != 0) {
+			return 0;
+		}
+		for (int i = closureOffsets[state]; i < closureOffsets[state + 1]; i++) {
+			int member = closureMembers[i];
+			states[member >>> 6] |= 1L << member;
+		}
+		return closureOffsets[state + 1] - closureOffsets[state];
+	}
+
+	private static boolean intersects(long[] a, long[] b) {
+		for (int w = 0; w < a.length; w++) {
+			if ((a[w] & b[w]) != 0L) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Cadenas que 'acceptAll' avanza a la vez, cada una en su propio carril.
+	private static final int INTERLEAVED_LANES = 16;
+
+	// Evalúa todas las cadenas y devuelve si cada una es aceptada, en el mismo orden.
+	public boolean[] acceptAll(String[] strings) {
+		boolean[] results = new boolean[strings.length];
+		acceptAll(strings, 0, strings.length, results);
+		return results;
+	}
+
+	/*
+		Evalúa strings[from, to) y guarda en results[i] si strings[i] es aceptada. En lugar de recorrer una cadena
+		tras otra, avanza INTERLEAVED_LANES cadenas a la vez sobre el AFD perezoso, un símbolo de cada una por
+		vuelta: las consultas a la tabla de transiciones de carriles distintos son independientes, así que sus
+		accesos a memoria se solapan en vez de esperarse uno al otro. Cuando una cadena termina (o el AFD muere)
+		su carril toma la siguiente cadena pendiente. Sin AFD perezoso o con símbolos de varios caracteres se
+		evalúa con 'accept' una por una, y lo mismo con las cadenas restantes si la cache deja de reutilizarse
+		(más de tres cuartos de fallos en una ventana de LAZY_DFA_CHECK_STEPS pasos por carril).
+	*/
+	public void acceptAll(String[] strings, int from, int to, boolean[] results) {
+		LazyDFA cache = lazyDFABudget > 0 && charSymbols != null ? lazyDFA() : null;
+		// Al vaciarse la cache se vuelven a ubicar todos los carriles, que deben caber en ella sin vaciarla otra vez.
+		if (cache == null || cache.maxCapacity < 2 * INTERLEAVED_LANES + 2) {
+			for (int i = from; i < to; i++) {
+				results[i] = accept(strings[i]);
+			}
+			return;
+		}
+
+		// Con métricas, cada paso se cuenta en un Tally local que se suma al final del lote.
+		AFNMetrics metrics = this.metrics;
+		AFNMetrics.Tally tally = metrics != null ? new AFNMetrics.Tally() : null;
+		long closureBefore = cache.closureIterations;
+
+		int lanes = Math.min(INTERLEAVED_LANES, to - from);
+		int symbols = cache.symbols;
+		int[] symbolTable = charSymbols;
+		int[] transitions = cache.transitions;
+		boolean[] deadStates = cache.dead;
+		boolean[] acceptingStates = cache.accepting;
+
+		// Estado de cada carril: índice de su cadena (-1 si está libre), posición y estado del AFD.
+		int[] laneIndex = new int[lanes];
+		String[] laneStrings = new String[lanes];
+		int[] lanePosition = new int[lanes];
+		int[] laneState = new int[lanes];
+		long[][] laneSets = new long[lanes][];
+		Arrays.fill(laneIndex, -1);
+
+		int nextString = from;
+		long hits = 0;
+		int windowSteps = 0;
+		int windowMisses = 0;
+		boolean thrashing = false; // Los carriles que se liberan ya no toman cadenas nuevas
+		boolean active = true;
+		while (active) {
+			active = false;
+			for (int lane = 0; lane < lanes; lane++) {
+				int index = laneIndex[lane];
+				if (index < 0) {
+					if (nextString == to || thrashing) {
+						continue;
+					}
+					index = nextString++;
+					String string = strings[index];
+					if (tally != null) {
+						tally.activeSet(countStates(cache.sets[cache.start]));
+					}
+					if (string.isEmpty() || deadStates[cache.start]) {
+						results[index] = acceptingStates[cache.start];
+						if (tally != null) {
+							tally.string(results[index], string.isEmpty());
+						}
+						active = true;
+						continue;
+					}
+					laneIndex[lane] = index;
+					laneStrings[lane] = string;
+					lanePosition[lane] = 0;
+					laneState[lane] = cache.start;
+				}
+				active = true;
+
+				String string = laneStrings[lane];
+				int position = lanePosition[lane];
+				char c = string.charAt(position);
+				int symbolIndex = c < symbolTable.length ? symbolTable[c] : 0;
+				if (symbolIndex == 0) {
+					results[index] = false; // El símbolo no está en el alfabeto
+					laneIndex[lane] = -1;
+					if (tally != null) {
+						tally.characters += position;
+						tally.string(false, false);
+					}
+					continue;
+				}
+
+				int state = laneState[lane];
+				int target = transitions[state * symbols + symbolIndex];
+				if (++windowSteps == LAZY_DFA_CHECK_STEPS * lanes) {
+					thrashing = windowMisses * 4 > windowSteps * 3;
+					windowSteps = 0;
+					windowMisses = 0;
+				}
+				if (target >= 0) {
+					hits++;
+				} else {
+					windowMisses++;
+					// Transición aún no calculada: si la cache se vacía, los demás carriles se ubican en la nueva.
+					for (int other = 0; other < lanes; other++) {
+						laneSets[other] = laneIndex[other] >= 0 ? cache.sets[laneState[other]] : null;
+					}
+					int epoch = cache.epoch;
+					target = cache.next(state, symbolIndex);
+					if (cache.epoch != epoch) {
+						for (int other = 0; other < lanes; other++) {
+							if (other != lane && laneSets[other] != null) {
+								laneState[other] = cache.locate(laneSets[other]);
+							}
+						}
+					}
+					transitions = cache.transitions;
+					deadStates = cache.dead;
+					acceptingStates = cache.accepting;
+				}
+
+				if (tally != null) {
+					tally.activeSet(countStates(cache.sets[target]));
+				}
+				if (deadStates[target]) {
+					results[index] = false;
+					laneIndex[lane] = -1;
+					if (tally != null) {
+						tally.characters += position + 1;
+						tally.string(false, position + 1 == string.length());
+					}
+				} else if (++position == string.length()) {
+					results[index] = acceptingStates[target];
+					laneIndex[lane] = -1;
+					if (tally != null) {
+						tally.characters += position;
+						tally.string(results[index], true);
+					}
+				} else {
+					lanePosition[lane] = position;
+					laneState[lane] = target;
+				}
+			}
+		}
+		cache.hits += hits;
+		cache.publishCounters();
+		if (tally != null) {
+			tally.closureIterations += cache.closureIterations - closureBefore;
+			metrics.add(tally);
+		}
+		for (int i = nextString; i < to; i++) {
+			results[i] = accept(strings[i]);
+		}
+	}
+
+	/*
+		Evalúa strings[from, to) compartiendo el trabajo de los prefijos comunes: las cadenas se ordenan y se
+		recorren en ese orden (el recorrido en profundidad del trie de las entradas), guardando el estado después
+		de cada carácter de la cadena anterior. Cada cadena continúa desde el estado de su prefijo común con la
+		anterior, y si ese prefijo ya llevó al autómata a un estado muerto se rechaza sin leerla. Los resultados
+		quedan en results[i] en el orden original. Con símbolos de varios caracteres la división en símbolos de un
+		prefijo depende de lo que sigue, así que se evalúa con 'acceptAll'.
+	*/
+	public void acceptAllSharedPrefixes(String[] strings, int from, int to, boolean[] results) {
+		if (charSymbols == null) {
+			acceptAll(strings, from, to, results);
+			return;
+		}
+		int[] order = new int[to - from];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = from + i;
+		}
+		sortByString(strings, order, 0, order.length, 0);
+
+		LazyDFA cache = lazyDFABudget > 0 ? lazyDFA() : null;
+		// Con métricas, cada paso calculado se cuenta en un Tally local que se suma al final del lote. Los caracteres
+		// del prefijo reutilizado no se vuelven a leer y no cuentan.
+		AFNMetrics metrics = this.metrics;
+		AFNMetrics.Tally tally = metrics != null ? new AFNMetrics.Tally() : null;
+		long closureBefore = cache != null ? cache.closureIterations : 0;
+		// stack[k] es el estado después de los primeros k caracteres de 'previous' (número del AFD perezoso o bitset del AFN).
+		int[] stateStack = new int[cache != null ? 64 : 0];
+		long[][] setStack = new long[cache != null ? 0 : 64][];
+		int stackEpoch = -1;
+
+		String previous = "";
+		int computed = 0; // Caracteres de 'previous' cuyo estado está en la pila
+		int deadDepth = Integer.MAX_VALUE; // Largo del prefijo de 'previous' que ya no puede llevar a aceptación
+		boolean deadOutsideAlphabet = false; // Si ese prefijo termina en un símbolo fuera del alfabeto
+		for (int index : order) {
+			String string = strings[index];
+			int common = 0;
+			int limit = Math.min(string.length(), previous.length());
+			while (common < limit && string.charAt(common) == previous.charAt(common)) {
+				common++;
+			}
+			previous = string;
+			if (deadDepth <= common) {
+				results[index] = false; // Comparte el prefijo muerto de la cadena anterior
+				computed = Math.min(computed, common);
+				if (tally != null) {
+					tally.string(false, deadDepth == string.length() && !deadOutsideAlphabet);
+				}
+				continue;
+			}
+			deadDepth = Integer.MAX_VALUE;
+
+			// Reutiliza los estados del prefijo común; si la cache se vació desde entonces, empieza de nuevo.
+			int position = Math.min(common, computed);
+			if (cache != null) {
+				if (stackEpoch != cache.epoch) {
+					position = 0;
+					stateStack[0] = cache.start;
+					stackEpoch = cache.epoch;
+				}
+				if (stateStack.length <= string.length()) {
+					stateStack = Arrays.copyOf(stateStack, Math.max(string.length() + 1, stateStack.length * 2));
+				}
+			} else {
+				if (setStack.length <= string.length()) {
+					setStack = Arrays.copyOf(setStack, Math.max(string.length() + 1, setStack.length * 2));
+				}
+				if (setStack[0] == null) {
+					setStack[0] = initialStates.clone();
+				}
+			}
+
+			int reused = position;
+			boolean dead = cache != null ? cache.dead[stateStack[position]] : !intersects(setStack[position], liveMask);
+			boolean outsideAlphabet = false;
+			while (!dead && position < string.length()) {
+				char c = string.charAt(position);
+				int symbolIndex = c < charSymbols.length ? charSymbols[c] : 0;
+				if (symbolIndex == 0) {
+					dead = true; // El símbolo no está en el alfabeto
+					outsideAlphabet = true;
+				} else if (cache != null) {
+					stateStack[position + 1] = cache.next(stateStack[position], symbolIndex);
+					dead = cache.dead[stateStack[position + 1]];
+					if (tally != null) {
+						tally.activeSet(countStates(cache.sets[stateStack[position + 1]]));
+					}
+				} else {
+					if (setStack[position + 1] == null) {
+						setStack[position + 1] = new long[stateWords];
+					}
+					long closureIterations = step(setStack[position], symbolIndex, setStack[position + 1]);
+					dead = !intersects(setStack[position + 1], liveMask);
+					if (tally != null) {
+						tally.closureIterations += closureIterations;
+						tally.activeSet(countStates(setStack[position + 1]));
+					}
+				}
+				position++;
+			}
+
+			if (dead) {
+				deadDepth = position;
+				deadOutsideAlphabet = outsideAlphabet;
+				results[index] = false;
+			} else {
+				results[index] = cache != null ? cache.accepting[stateStack[position]] : intersects(setStack[position], acceptanceMask);
+			}
+			if (tally != null) {
+				int read = position - reused - (outsideAlphabet ? 1 : 0);
+				tally.characters += read;
+				tally.string(results[index], position == string.length() && !outsideAlphabet);
+			}
+			computed = position;
+			if (cache != null && stackEpoch != cache.epoch) {
+				stackEpoch = -1; // La cache se vació durante esta cadena: los estados guardados ya no son válidos
+			}
+		}
+		if (cache != null) {
+			cache.publishCounters();
+		}
+		if (tally != null) {
+			if (cache != null) {
+				tally.closureIterations += cache.closureIterations - closureBefore;
+			}
+			metrics.add(tally);
 		}
 	}
 
-	// Constructor que carga un AFN desde un archivo
-	public AFN(String path) throws FileNotFoundException {
-		loadAFN(path);
+	// Ordena los índices según su cadena con quicksort de tres vías por carácter, que no vuelve a comparar los prefijos comunes.
+	private static void sortByString(String[] strings, int[] order, int low, int high, int depth) {
+		while (high - low > 1) {
+			int pivot = charAt(strings[order[low + (high - low) / 2]], depth);
+			int less = low;
+			int greater = high - 1;
+			int i = low;
+			while (i <= greater) {
+				int c = charAt(strings[order[i]], depth);
+				if (c < pivot) {
+					swap(order, less++, i++);
+				} else if (c > pivot) {
+					swap(order, i, greater--);
+				} else {
+					i++;
+				}
+			}
+			sortByString(strings, order, low, less, depth);
+			sortByString(strings, order, greater + 1, high, depth);
+			if (pivot < 0) {
+				return; // Todas las cadenas del centro terminan aquí y son iguales
+			}
+			low = less;
+			high = greater + 1;
+			depth++;
+		}
 	}
 
-	// Método para cargar los datos del AFN desde un archivo especificado
-	public void loadAFN(String path) throws FileNotFoundException {
-		File file = new File(path);
-		Scanner scanner = new Scanner(file);
+	private static int charAt(String string, int index) {
+		return index < string.length() ? string.charAt(index) : -1;
+	}
 
-		// Leer y almacenar el alfabeto
-		alphabet = scanner.nextLine().split(",");
-		int maxSymbols = alphabet.length + 1; // Contando lambda
+	private static void swap(int[] array, int i, int j) {
+		int value = array[i];
+		array[i] = array[j];
+		array[j] = value;
+	}
 
-		// Leer cantidad de estados
-		int maxStates = Integer.parseInt(scanner.nextLine());
+	// Cantidad de líneas que cada tarea del modo por lotes evalúa de una vez.
+	private static final int BATCH_CHUNK_LINES = 1 << 14;
 
-		// Marcar estados de aceptación
-		acceptanceStates = new boolean[maxStates + 1];
-		String[] finalStates = scanner.nextLine().split(",");
-		for (String state : finalStates) {
-			int finalStateIndex = Integer.parseInt(state.trim());
-			acceptanceStates[finalStateIndex] = true;
+	/*
+		Evalúa cada línea del archivo de entrada y escribe en el archivo de salida una línea "T" o "F"
+		por cada una, en el mismo orden. La entrada se lee en UTF-8, igual que el .afn y -scan. Las líneas se leen por bloques que se reparten entre 'threads' hilos
+		(todos comparten este AFN, que no cambia después de cargarse) y los resultados se escriben en orden
+		a través de un FileChannel. Devuelve la cantidad de cadenas evaluadas.
+	*/
+	public long evaluateBatch(String inputPath, String outputPath, int threads) throws IOException {
+		return evaluateBatch(inputPath, outputPath, threads, false);
+	}
+
+	// Igual que evaluateBatch, pero si 'sharedPrefixes' es verdadero cada bloque se evalúa con acceptAllSharedPrefixes.
+	public long evaluateBatch(String inputPath, String outputPath, int threads, boolean sharedPrefixes) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("La cantidad de hilos debe ser al menos 1: " + threads);
 		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// Limita los bloques en vuelo para que la memoria no dependa del tamaño del archivo.
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		int maxPending = threads * 2;
+		long evaluated = 0;
 
-		// Inicializar la estructura para almacenar transiciones
-		for (int i = 0; i < maxSymbols; i++) {
-			List<List<List<String>>> symbolTransitions = new ArrayList<>();
-			for (int j = 0; j < maxStates + 1; j++) {
-				symbolTransitions.add(new ArrayList<>());
+		try (BufferedReader reader = new BufferedReader(new FileReader(inputPath, StandardCharsets.UTF_8), 1 << 16);
+			 FileChannel output = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE,
+					 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			String[] chunk = new String[BATCH_CHUNK_LINES];
+			int chunkSize = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				chunk[chunkSize++] = line;
+				if (chunkSize == chunk.length) {
+					pending.add(submitChunk(executor, chunk, chunkSize, sharedPrefixes));
+					evaluated += chunkSize;
+					chunk = new String[BATCH_CHUNK_LINES];
+					chunkSize = 0;
+					if (pending.size() >= maxPending) {
+						writeFully(output, pending.poll());
+					}
+				}
 			}
-			transitions.add(symbolTransitions);
+			if (chunkSize > 0) {
+				pending.add(submitChunk(executor, chunk, chunkSize, sharedPrefixes));
+				evaluated += chunkSize;
+			}
+			while (!pending.isEmpty()) {
+				writeFully(output, pending.poll());
+			}
+		} finally {
+			executor.shutdownNow();
 		}
+		return evaluated;
+	}
 
-		// Itera sobre cada símbolo en el alfabeto, incluyendo las transiciones lambda (asumido en el índice 0).
-		for (int symbolIndex = 0; symbolIndex < maxSymbols; symbolIndex++) {
-			// Comprueba si hay más líneas en el archivo para leer. Cada línea representa las transiciones para un símbolo específico.
-			if (scanner.hasNextLine()) {
-				// Lee la próxima línea del archivo, que contiene las transiciones para el símbolo actual.
-				String line = scanner.nextLine();
+	private Future<byte[]> submitChunk(ExecutorService executor, String[] chunk, int chunkSize, boolean sharedPrefixes) {
+		return executor.submit(() -> {
+			boolean[] accepted = new boolean[chunkSize];
+			if (sharedPrefixes) {
+				acceptAllSharedPrefixes(chunk, 0, chunkSize, accepted);
+			} else {
+				acceptAll(chunk, 0, chunkSize, accepted);
+			}
+			byte[] results = new byte[chunkSize * 2];
+			for (int i = 0; i < chunkSize; i++) {
+				results[2 * i] = (byte) (accepted[i] ? 'T' : 'F');
+				results[2 * i + 1] = '\n';
+			}
+			return results;
+		});
+	}
 
-				// Divide la línea por comas para obtener las transiciones de cada estado.
-				// Cada elemento del array representa las transiciones desde un estado específico para el símbolo actual.
-				String[] stateTransitions = line.split(",");
+	private static void writeFully(FileChannel output, Future<byte[]> results) throws IOException {
+		ByteBuffer buffer;
+		try {
+			buffer = ByteBuffer.wrap(results.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Evaluación por lotes interrumpida", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Error al evaluar un bloque de cadenas", e.getCause());
+		}
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+	}
 
-				// Itera sobre cada estado para el cual se han definido transiciones en la línea.
-				for (int state = 0; state < maxStates; state++) {
-					// Divide las transiciones de cada estado por punto y coma para obtener transiciones múltiples desde un mismo estado.
-					// Por ejemplo, si un estado puede transitar a varios estados en una misma entrada, estarán separados por punto y coma.
-					String[] stateTransitionsMultiple = stateTransitions[state].split(";");
+	/*
+		Implemente el metodo toAFD. Este metodo debe generar un archivo
+		de texto que contenga los datos de un AFD segun las especificaciones
+		del proyecto.
+	*/
+	public void toAFD(String afdPath) throws FileNotFoundException {
+		toAFD(afdPath, false);
+	}
 
-					// Accede a la lista de listas de transiciones para el símbolo y estado actual.
-					// Esta estructura permite almacenar múltiples destinos de transición para cada combinación de símbolo y estado.
-					List<List<String>> currentTransitions = transitions.get(symbolIndex).get(state); // transitions[][]
+	// Genera el archivo .afd y, si 'minimize' es verdadero, minimiza el AFD antes de escribirlo.
+	public void toAFD(String afdPath, boolean minimize) throws FileNotFoundException {
+		toAFD(afdPath, minimize, 1);
+	}
 
-					// Agrega la nueva lista de transiciones (convertida de array a lista) a la lista de transiciones del estado actual.
-					currentTransitions.add(List.of(stateTransitionsMultiple));
-				}
+	/*
+		Igual que toAFD(afdPath, minimize), pero con 'parallelism' mayor que 1 la construcción
+		de subconjuntos se reparte entre ese número de hilos. El archivo generado es idéntico
+		al de la construcción secuencial.
+	*/
+	public void toAFD(String afdPath, boolean minimize, int parallelism) throws FileNotFoundException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("El paralelismo debe ser al menos 1: " + parallelism);
+		}
+		AFNMetrics metrics = this.metrics;
+		long start = System.nanoTime();
+		AFNMetrics.ToAFDPhaseEvent phase = beginPhase(metrics);
+		AFDTable afd = parallelism == 1 ? buildAFD() : buildAFDParallel(parallelism);
+		if (metrics != null) {
+			metrics.recordAFDBuild(System.nanoTime() - start, afd.stateCount);
+			endPhase(phase, "construccion", afd.stateCount);
+		}
+		if (minimize) {
+			start = System.nanoTime();
+			phase = beginPhase(metrics);
+			afd = minimizeAFD(afd);
+			if (metrics != null) {
+				metrics.recordAFDMinimize(System.nanoTime() - start);
+				endPhase(phase, "minimizacion", afd.stateCount);
 			}
 		}
+		start = System.nanoTime();
+		phase = beginPhase(metrics);
+		writeAFD(afdPath, afd);
+		if (metrics != null) {
+			metrics.recordAFDWrite(System.nanoTime() - start);
+			endPhase(phase, "escritura", afd.stateCount);
+		}
+	}
 
-//		printTransitionsTable(maxSymbols, maxStates);
-		scanner.close();
+	// Evento JFR de una fase de toAFD, solo si las métricas están activas.
+	private static AFNMetrics.ToAFDPhaseEvent beginPhase(AFNMetrics metrics) {
+		if (metrics == null) {
+			return null;
+		}
+		AFNMetrics.ToAFDPhaseEvent event = new AFNMetrics.ToAFDPhaseEvent();
+		event.begin();
+		return event;
 	}
 
-	// Método para imprimir tabla de transiciones, útil para depuración
-	public void printTransitionsTable(int maxSymbols, int maxStates) {
-		System.out.format("%-10s %-20s %s%n", "Símbolo", "Estado", "Transiciones");
-		printMagenta(true, "---------------------------------------------------------");
-		for (int i = 0; i < maxSymbols; i++) {
-			String symbol = (i == 0) ? "λ" : alphabet[i - 1];
-			for (int j = 0; j < maxStates; j++) {
-				List<List<String>> transitionLists = transitions.get(i).get(j);
-				StringBuilder transitionDescription = new StringBuilder();
-				for (List<String> transition : transitionLists) {
-					transitionDescription.append(transition.toString() + ", ");
+	private static void endPhase(AFNMetrics.ToAFDPhaseEvent event, String phase, int states) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.phase = phase;
+			event.states = states;
+			event.commit();
+		}
+	}
+
+	/*
+		Construcción de subconjuntos: el estado 1 del AFD es la clausura lambda del estado inicial del AFN.
+		Cada conjunto de estados del AFN es un bitset internado en una tabla hash (igual que en la versión
+		paralela); los estados del AFD se numeran y se procesan en orden de descubrimiento.
+	*/
+	private AFDTable buildAFD() {
+		int symbols = alphabet.length;
+		Map<StateSet, StateSet> interned = new HashMap<>();
+		List<StateSet> afdStates = new ArrayList<>();
+		List<int[]> afdTransitions = new ArrayList<>();
+
+		StateSet startState = new StateSet(initialStates.clone());
+		startState.number = 1;
+		interned.put(startState, startState);
+		afdStates.add(startState);
+
+		long[] nextStates = new long[stateWords];
+		for (int processed = 0; processed < afdStates.size(); processed++) {
+			long[] currentStates = afdStates.get(processed).states;
+			int[] row = new int[symbols];
+			for (int symbolIndex = 1; symbolIndex <= symbols; symbolIndex++) {
+				step(currentStates, symbolIndex, nextStates);
+				StateSet candidate = new StateSet(nextStates);
+				StateSet existing = interned.putIfAbsent(candidate, candidate);
+				if (existing == null) {
+					// El conjunto nuevo se queda con el bitset; el siguiente paso usa uno nuevo.
+					candidate.number = afdStates.size() + 1;
+					afdStates.add(candidate);
+					nextStates = new long[stateWords];
+					existing = candidate;
 				}
-				if (transitionDescription.length() > 0)
-					transitionDescription.setLength(transitionDescription.length() - 2);
-				else
-					transitionDescription.append("{}");
-				System.out.format("%-10s %-20s %s%n", "'" + symbol + "'", "Estado " + j, transitionDescription.toString());
+				row[symbolIndex - 1] = existing.number;
 			}
-			System.out.println();
+			afdTransitions.add(row);
+		}
+
+		AFDTable afd = new AFDTable(afdStates.size());
+		for (int i = 1; i <= afd.stateCount; i++) {
+			afd.transitions[i] = afdTransitions.get(i - 1);
+			afd.accepting[i] = intersects(afdStates.get(i - 1).states, acceptanceMask);
 		}
+		return afd;
 	}
 
 	/*
-		Implemente el metodo accept, que recibe como argumento
-		un String que representa la cuerda a evaluar, y devuelve
-		un boolean dependiendo de si la cuerda es aceptada o no
-		por el AFN. Recuerde lo aprendido en el proyecto 1.
+		Construcción de subconjuntos por niveles (frontera de un recorrido en anchura). Los sucesores de
+		todos los estados de la frontera con todos los símbolos se calculan en un ForkJoinPool y se internan
+		en una tabla concurrente; después se numeran en el mismo orden en que los descubre la versión
+		secuencial, de modo que la numeración final no depende del orden de ejecución de los hilos.
 	*/
-	public boolean accept(String string) {
-		Set<Integer> currentStates = new HashSet<>();
-		currentStates.add(1); // Asumiendo que el estado inicial es siempre 1
+	private AFDTable buildAFDParallel(int parallelism) {
+		int symbols = alphabet.length;
+		ConcurrentHashMap<StateSet, StateSet> interned = new ConcurrentHashMap<>();
+		List<StateSet> afdStates = new ArrayList<>();
+		List<int[]> afdTransitions = new ArrayList<>();
 
-		currentStates = applyLambdaTransitions(currentStates);
-		Map<Character, Integer> symbolToIndex = new HashMap<>();
-		for (int i = 0; i < alphabet.length; i++) {
-			symbolToIndex.put(alphabet[i].charAt(0), i + 1);
-		}
-
-		// Itera sobre cada carácter de la cadena de entrada.
-		for (char c : string.toCharArray()) {
-			// Comprueba si el carácter actual está en el alfabeto del autómata.
-			// Si no está, la cadena no es aceptada porque el autómata no tiene transiciones para ese carácter.
-			if (!symbolToIndex.containsKey(c)) {
-				return false; // Si el carácter no está en el alfabeto, la cadena no es aceptada
-			}
-
-			// Obtiene el índice del símbolo correspondiente al carácter actual, necesario para acceder a sus transiciones.
-			int symbolIndex = symbolToIndex.get(c);
-
-			// Prepara un nuevo conjunto para almacenar los estados que se pueden alcanzar desde los estados actuales usando el carácter actual.
-			Set<Integer> nextStates = new HashSet<>();
-
-			// Itera sobre cada estado actual en el conjunto de estados actuales.
-			for (int currentState : currentStates) {
-				// Obtiene las transiciones para el estado actual basadas en el carácter actual.
-				List<List<String>> transitionsForState = transitions.get(symbolIndex).get(currentState);
-
-				// Itera sobre cada lista de transiciones (cada lista es un grupo de estados destino).
-				for (List<String> transitionList : transitionsForState) {
-					// Itera sobre cada estado destino en la lista de transiciones.
-					for (String nextState : transitionList) {
-						// Intenta convertir el estado de destino a entero y agregarlo al conjunto de los próximos estados.
-						try {
-							nextStates.add(Integer.parseInt(nextState.trim()));
-						} catch (NumberFormatException e) {
-							// Captura y maneja la excepción si el número de estado no se puede convertir a entero.
-							System.err.println("Error parsing state number: " + nextState);
-						}
+		StateSet startState = new StateSet(initialStates.clone());
+		startState.number = 1;
+		interned.put(startState, startState);
+		afdStates.add(startState);
+		afdTransitions.add(new int[symbols]);
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			int levelStart = 0;
+			while (levelStart < afdStates.size()) {
+				int levelEnd = afdStates.size();
+				StateSet[] frontier = afdStates.subList(levelStart, levelEnd).toArray(new StateSet[0]);
+				StateSet[] successors = new StateSet[frontier.length * symbols];
+				pool.invoke(new SuccessorTask(frontier, successors, interned, 0, successors.length));
+
+				// Renumeración determinista: recorre estados y símbolos en el orden de la versión secuencial.
+				for (int i = 0; i < successors.length; i++) {
+					StateSet successor = successors[i];
+					if (successor.number == 0) {
+						afdStates.add(successor);
+						afdTransitions.add(new int[symbols]);
+						successor.number = afdStates.size();
 					}
+					afdTransitions.get(levelStart + i / symbols)[i % symbols] = successor.number;
 				}
+				levelStart = levelEnd;
 			}
+		} finally {
+			pool.shutdown();
+		}
+
+		AFDTable afd = new AFDTable(afdStates.size());
+		for (int i = 1; i <= afd.stateCount; i++) {
+			afd.transitions[i] = afdTransitions.get(i - 1);
+			afd.accepting[i] = intersects(afdStates.get(i - 1).states, acceptanceMask);
+		}
+		return afd;
+	}
 
-			// Aplica transiciones lambda a los estados recién alcanzados para incluir todos los estados posibles alcanzables.
-			currentStates = applyLambdaTransitions(nextStates);
+	// Conjunto de estados del AFN usado como llave en la construcción de subconjuntos; 'number' es 0 hasta que se numera.
+	private static final class StateSet {
+		final long[] states;
+		final int hash;
+		int number;
 
-			// Si después de aplicar transiciones, incluyendo las lambda, no hay estados alcanzables,
-			// la cadena no puede ser aceptada y se retorna false.
-			if (currentStates.isEmpty()) {
-				return false;
-			}
+		StateSet(long[] states) {
+			this.states = states;
+			this.hash = Arrays.hashCode(states);
 		}
 
-		for (int state : currentStates) {
-			if (acceptanceStates[state]) {
-				return true;
-			}
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof StateSet && Arrays.equals(states, ((StateSet) other).states);
 		}
 
-		return false;
+		@Override
+		public int hashCode() {
+			return hash;
+		}
 	}
 
-	// Método para aplicar transiciones lambda
-	private Set<Integer> applyLambdaTransitions(Set<Integer> currentStates) {
-		Set<Integer> statesWithLambda = new HashSet<>(currentStates);
-		boolean changed;
+	// Calcula los sucesores de un rango de pares (estado de la frontera, símbolo), dividiéndolo mientras sea grande.
+	private final class SuccessorTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 64;
 
-		// Bucle para aplicar transiciones lambda. Se repite mientras se encuentren nuevos estados alcanzables mediante transiciones lambda.
-		do {
-			// Inicializa 'changed' a false para rastrear si se encuentra algún nuevo estado en esta iteración.
-			changed = false;
-			// 'newStates' almacena los nuevos estados alcanzados en esta iteración para evitar modificar 'statesWithLambda' mientras se itera.
-			Set<Integer> newStates = new HashSet<>();
-
-			// Itera sobre cada estado actual en el conjunto 'statesWithLambda'.
-			for (int state : statesWithLambda) {
-				// Accede a las transiciones lambda para el estado actual. Lambda se asume en la posición 0 del array de transiciones.
-				List<List<String>> lambdaTransitions = transitions.get(0).get(state);
-
-				// Itera sobre cada lista de transiciones lambda disponibles para el estado actual.
-				for (List<String> transition : lambdaTransitions) {
-					// Itera sobre cada estado destino en la lista de transiciones lambda.
-					for (String nextState : transition) {
-						// Convierte el estado destino a entero y lo recorta para eliminar espacios en blanco.
-						int nextStateInt = Integer.parseInt(nextState.trim());
-
-						// Intenta agregar el estado destino al conjunto 'statesWithLambda'. Si es nuevo, lo agrega a 'newStates'.
-						if (statesWithLambda.add(nextStateInt)) {
-							// Agrega el estado a 'newStates' y marca que hubo un cambio.
-							newStates.add(nextStateInt);
-							changed = true;
+		private final StateSet[] frontier;
+		private final StateSet[] successors;
+		private final ConcurrentHashMap<StateSet, StateSet> interned;
+		private final int from;
+		private final int to;
+
+		SuccessorTask(StateSet[] frontier, StateSet[] successors, ConcurrentHashMap<StateSet, StateSet> interned, int from, int to) {
+			this.frontier = frontier;
+			this.successors = successors;
+			this.interned = interned;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SuccessorTask(frontier, successors, interned, from, middle),
+						new SuccessorTask(frontier, successors, interned, middle, to));
+				return;
+			}
+			int symbols = alphabet.length;
+			for (int i = from; i < to; i++) {
+				long[] next = new long[stateWords];
+				step(frontier[i / symbols].states, i % symbols + 1, next);
+				StateSet candidate = new StateSet(next);
+				StateSet existing = interned.putIfAbsent(candidate, candidate);
+				successors[i] = existing != null ? existing : candidate;
+			}
+		}
+	}
+
+	/*
+		Construcción de subconjuntos con memoria acotada. Cada conjunto de estados del AFN se guarda una sola vez
+		como arreglo ordenado de enteros dentro de una tabla compacta, y cada fila de transiciones se escribe a un
+		archivo temporal en cuanto se completa; al final el archivo .afd se genera leyendo esas filas en orden.
+		Si el AFD supera 'maxAFDStates' estados o la tabla supera 'memoryBudgetBytes' bytes, la construcción se
+		detiene con una IllegalStateException que describe hasta dónde se llegó. El resultado es idéntico al de toAFD.
+	*/
+	public void toAFDBounded(String afdPath, long memoryBudgetBytes, int maxAFDStates) throws IOException {
+		if (memoryBudgetBytes <= 0 || maxAFDStates <= 0) {
+			throw new IllegalArgumentException("El presupuesto de memoria y el máximo de estados deben ser positivos");
+		}
+		int symbols = alphabet.length;
+		CompactStateTable table = new CompactStateTable();
+		long[] currentStates = new long[stateWords];
+		long[] nextStates = new long[stateWords];
+		int[] sortedStates = new int[maxStates + 1];
+
+		table.add(sortedStates, toSortedStates(initialStates, sortedStates), intersects(initialStates, acceptanceMask));
+
+		File spillFile = File.createTempFile("afd-rows", ".bin");
+		try {
+			// Los estados se numeran en orden de descubrimiento y se procesan en ese mismo orden,
+			// así que el número del siguiente estado a procesar hace las veces de cola.
+			try (DataOutputStream rows = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), 1 << 16))) {
+				for (int processed = 1; processed <= table.size; processed++) {
+					table.load(processed, currentStates);
+					for (int symbolIndex = 1; symbolIndex <= symbols; symbolIndex++) {
+						step(currentStates, symbolIndex, nextStates);
+						int count = toSortedStates(nextStates, sortedStates);
+						int number = table.find(sortedStates, count);
+						if (number == 0) {
+							if (table.size == maxAFDStates) {
+								throw new IllegalStateException(boundedReport("se alcanzó el máximo de " + maxAFDStates + " estados", table, processed));
+							}
+							// El presupuesto se revisa antes de que la tabla reserve sus arreglos más grandes.
+							if (table.projectedBytes(count) > memoryBudgetBytes) {
+								throw new IllegalStateException(boundedReport("el siguiente estado superaría el presupuesto de " + memoryBudgetBytes + " bytes", table, processed));
+							}
+							number = table.add(sortedStates, count, intersects(nextStates, acceptanceMask));
 						}
+						rows.writeInt(number);
 					}
 				}
 			}
 
-			// Agrega todos los nuevos estados encontrados a 'statesWithLambda' para considerarlos en la siguiente iteración.
-			statesWithLambda.addAll(newStates);
-		} while (changed); // Continúa mientras se encuentren nuevos estados.
+			try (PrintWriter out = new PrintWriter(afdPath);
+				 DataInputStream rows = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), 1 << 16))) {
+				out.println(String.join(",", alphabet));
+				out.println(table.size);
+
+				StringJoiner acceptStatesJoiner = new StringJoiner(",");
+				for (int i = 1; i <= table.size; i++) {
+					if (table.isAccepting(i)) {
+						acceptStatesJoiner.add(Integer.toString(i));
+					}
+				}
+				out.println(acceptStatesJoiner.toString());
+
+				// Mismo formato de filas que writeAFD, incluida la columna final en 0.
+				StringBuilder line = new StringBuilder();
+				for (int i = 1; i <= table.size; i++) {
+					line.setLength(0);
+					for (int symbolIndex = 0; symbolIndex < symbols; symbolIndex++) {
+						line.append(rows.readInt()).append(',');
+					}
+					line.append('0');
+					out.println(line);
+				}
+			}
+		} finally {
+			spillFile.delete();
+		}
+	}
 
+	private static String boundedReport(String reason, CompactStateTable table, int processed) {
+		return "Construcción del AFD detenida: " + reason + ". Estados descubiertos: " + table.size
+				+ ", estados procesados: " + (processed - 1) + ", memoria usada por la tabla: " + table.memoryBytes() + " bytes.";
+	}
 
-		return statesWithLambda;
+	// Escribe en 'sortedStates' los estados presentes en el bitset, en orden ascendente, y devuelve cuántos son.
+	private static int toSortedStates(long[] states, int[] sortedStates) {
+		int count = 0;
+		for (int w = 0; w < states.length; w++) {
+			for (long word = states[w]; word != 0; word &= word - 1) {
+				sortedStates[count++] = (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+		}
+		return count;
 	}
 
 	/*
-		Implemente el metodo toAFD. Este metodo debe generar un archivo
-		de texto que contenga los datos de un AFD segun las especificaciones
-		del proyecto.
+		Tabla de conjuntos de estados numerados 1..size. Los conjuntos se guardan consecutivos en un solo
+		arreglo de enteros y se localizan con una tabla hash de direccionamiento abierto sobre sus números.
 	*/
-	public void toAFD(String afdPath) throws FileNotFoundException {
-		Map<Set<Integer>, Integer> afdStateMap = new HashMap<>();
-		List<Set<Integer>> afdStates = new ArrayList<>();
-		List<List<Integer>> afdTransitions = new ArrayList<>();
-		Queue<Set<Integer>> statesToProcess = new LinkedList<>();
-
-		Set<Integer> startState = applyLambdaTransitions(Collections.singleton(1));
-		statesToProcess.add(startState);
-		afdStateMap.put(startState, 1);
-		afdStates.add(startState);
+	private static final class CompactStateTable {
+		int[] data = new int[1024]; // Estados de todos los conjuntos, uno tras otro
+		int dataSize;
+		int[] setStart = new int[64]; // El conjunto 'n' ocupa data[setStart[n] .. setStart[n + 1] - 1]
+		int[] hashes = new int[64];
+		long[] accepting = new long[1];
+		int[] slots = new int[128]; // Número del conjunto en cada casilla, 0 si está libre
+		int size;
 
-		// Itera sobre cada símbolo en el alfabeto del AFN
-		for (int i = 0; i < alphabet.length; i++) {
-			// Agrega una nueva lista a afdTransitions para manejar las transiciones del AFD para el i-ésimo símbolo del alfabeto
-			// La lista se inicializa con tantos ceros como estados en el AFD, donde cada cero representa un estado de transición no definido
-			// o un estado de error por defecto.
-			//
-			// Collections.nCopies(afdStates.size(), 0) crea una lista prellenada con ceros. El número de ceros corresponde al número de estados
-			// en el AFD, asegurando que cada estado tenga una entrada de transición (aunque sea un estado de error inicialmente).
-			afdTransitions.add(new ArrayList<>(Collections.nCopies(afdStates.size(), 0)));
+		int find(int[] states, int count) {
+			int mask = slots.length - 1;
+			int hash = hash(states, count);
+			for (int index = hash & mask; ; index = (index + 1) & mask) {
+				int number = slots[index];
+				if (number == 0) {
+					return 0;
+				}
+				if (hashes[number] == hash && matches(number, states, count)) {
+					return number;
+				}
+			}
 		}
 
+		int add(int[] states, int count, boolean isAccepting) {
+			int number = ++size;
+			if (number + 1 >= setStart.length) {
+				setStart = Arrays.copyOf(setStart, setStart.length * 2);
+				hashes = Arrays.copyOf(hashes, hashes.length * 2);
+			}
+			if (dataSize + count > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, dataSize + count));
+			}
+			if ((number >>> 6) >= accepting.length) {
+				accepting = Arrays.copyOf(accepting, accepting.length * 2);
+			}
 
-		while (!statesToProcess.isEmpty()) {
-			Set<Integer> currentState = statesToProcess.poll();
-			int afdStateIndex = afdStateMap.get(currentState);
+			setStart[number] = dataSize;
+			System.arraycopy(states, 0, data, dataSize, count);
+			dataSize += count;
+			setStart[number + 1] = dataSize;
+			hashes[number] = hash(states, count);
+			if (isAccepting) {
+				accepting[number >>> 6] |= 1L << number;
+			}
 
-			while (afdTransitions.size() <= afdStateIndex) {
-				afdTransitions.add(new ArrayList<>(Collections.nCopies(alphabet.length, 0)));
+			if (size * 2 > slots.length) {
+				rehash();
+			} else {
+				insert(number);
 			}
+			return number;
+		}
 
-			for (int symbolIndex = 1; symbolIndex <= alphabet.length; symbolIndex++) {
-				Set<Integer> newState = new HashSet<>();
-				// Itera sobre cada estado actual en el conjunto de estados actuales
-				for (int state : currentState) {
-					// Verifica si el índice del estado actual es menor que el tamaño de la lista de transiciones para el símbolo actual
-					// Esto es necesario para evitar errores de índice fuera de límites al acceder a la lista
-					if (state < transitions.get(symbolIndex).size()) {
-						// Obtiene la lista de listas de transiciones para el estado actual bajo el símbolo actual
-						// Cada lista interna representa un conjunto de estados a los que se puede llegar desde 'state' bajo el símbolo de 'symbolIndex'
-						List<List<String>> transitionsForState = this.transitions.get(symbolIndex).get(state);
-
-						// Itera sobre cada lista de transiciones, donde cada lista contiene estados de destino en formato de cadena
-						for (List<String> transition : transitionsForState) {
-							// Itera sobre cada estado de destino en la lista de transición
-							for (String nextState : transition) {
-								// Convierte el estado de destino de formato de cadena a entero y elimina espacios en blanco
-								// Luego, agrega el estado convertido al conjunto de nuevos estados
-								// Esto acumula todos los estados alcanzables desde el estado actual bajo el símbolo actual
-								newState.add(Integer.parseInt(nextState.trim()));
-							}
-						}
-					}
-				}
+		// Carga en el bitset los estados del conjunto 'number'.
+		void load(int number, long[] states) {
+			Arrays.fill(states, 0L);
+			for (int i = setStart[number]; i < setStart[number + 1]; i++) {
+				states[data[i] >>> 6] |= 1L << data[i];
+			}
+		}
 
+		boolean isAccepting(int number) {
+			return (accepting[number >>> 6] & (1L << number)) != 0;
+		}
 
-				newState = applyLambdaTransitions(newState);
+		long memoryBytes() {
+			return 4L * (data.length + setStart.length + hashes.length + slots.length) + 8L * accepting.length;
+		}
 
-				if (!afdStateMap.containsKey(newState)) {
-					afdStates.add(newState);
-					afdStateMap.put(newState, afdStates.size());
-					statesToProcess.add(newState);
-				}
+		// Memoria que usaría la tabla después de agregar un conjunto de 'count' estados, con los arreglos que crecerían en 'add'.
+		long projectedBytes(int count) {
+			int number = size + 1;
+			long setLength = number + 1 >= setStart.length ? 2L * setStart.length : setStart.length; // setStart y hashes
+			long dataLength = dataSize + count > data.length ? Math.max(2L * data.length, (long) dataSize + count) : data.length;
+			long acceptingLength = (number >>> 6) >= accepting.length ? 2L * accepting.length : accepting.length;
+			long slotsLength = number * 2L > slots.length ? 2L * slots.length : slots.length;
+			return 4L * (dataLength + 2 * setLength + slotsLength) + 8L * acceptingLength;
+		}
 
-				while (afdTransitions.get(afdStateIndex).size() <= symbolIndex) {
-					afdTransitions.get(afdStateIndex).add(0);
+		private boolean matches(int number, int[] states, int count) {
+			int start = setStart[number];
+			if (setStart[number + 1] - start != count) {
+				return false;
+			}
+			for (int i = 0; i < count; i++) {
+				if (data[start + i] != states[i]) {
+					return false;
 				}
+			}
+			return true;
+		}
+
+		private void insert(int number) {
+			int mask = slots.length - 1;
+			int index = hashes[number] & mask;
+			while (slots[index] != 0) {
+				index = (index + 1) & mask;
+			}
+			slots[index] = number;
+		}
 
-				int nextStateIndex = afdStateMap.getOrDefault(newState, 0);
-				afdTransitions.get(afdStateIndex).set(symbolIndex - 1, nextStateIndex);
+		private void rehash() {
+			slots = new int[slots.length * 2];
+			for (int number = 1; number <= size; number++) {
+				insert(number);
 			}
 		}
 
+		private static int hash(int[] states, int count) {
+			int h = count;
+			for (int i = 0; i < count; i++) {
+				h = (h ^ states[i]) * 0x9E3779B1;
+				h ^= h >>> 15;
+			}
+			return h;
+		}
+	}
+
+	// Escribe el AFD en el formato del proyecto: alfabeto, cantidad de estados, estados de aceptación y una fila por estado.
+	private void writeAFD(String afdPath, AFDTable afd) throws FileNotFoundException {
 		try (PrintWriter out = new PrintWriter(afdPath)) {
 			out.println(String.join(",", alphabet));
-			out.println(afdStates.size());
+			out.println(afd.stateCount);
 
 			// Crea un StringJoiner para construir una lista de estados de aceptación separada por comas.
 			StringJoiner acceptStatesJoiner = new StringJoiner(",");
-
-			// Itera sobre todos los estados en el AFD.
-			for (int i = 0; i < afdStates.size(); i++) {
-				// Obtiene el conjunto de estados del AFN que componen el i-ésimo estado del AFD.
-				Set<Integer> state = afdStates.get(i);
-
-				// Itera sobre cada estado del AFN que forma parte del estado actual del AFD.
-				for (int afnState : state) {
-					// Comprueba si el estado actual del AFN es un estado de aceptación.
-					if (acceptanceStates[afnState]) {
-						// Si es un estado de aceptación, añade el índice del estado del AFD al StringJoiner.
-						// Los índices en el AFD comienzan en 1, por lo que se añade 1 al índice actual.
-						acceptStatesJoiner.add(Integer.toString(i + 1));
-
-						// Sal del bucle interno una vez que se encuentra un estado de aceptación,
-						// ya que no es necesario verificar los demás estados del AFN en este estado del AFD.
-						break;
-					}
+			for (int i = 1; i <= afd.stateCount; i++) {
+				if (afd.accepting[i]) {
+					acceptStatesJoiner.add(Integer.toString(i));
 				}
 			}
 
 			// Escribe la lista de estados de aceptación generada al archivo de salida.
-			// El resultado es una cadena de números separados por comas, donde cada número representa un estado de aceptación en el AFD.
 			out.println(acceptStatesJoiner.toString());
 
-			for (int i = 1; i <= afdStateMap.size(); i++) {
-				List<Integer> transitionList = afdTransitions.get(i);
+			// Cada fila termina con una columna adicional en 0, igual que el formato generado desde la primera versión.
+			for (int i = 1; i <= afd.stateCount; i++) {
 				StringJoiner transitionJoiner = new StringJoiner(",");
-				for (int nextState : transitionList) {
+				for (int nextState : afd.transitions[i]) {
 					transitionJoiner.add(Integer.toString(nextState));
 				}
+				transitionJoiner.add("0");
 				out.println(transitionJoiner.toString());
 			}
 		}
 	}
 
+	/*
+		Minimiza el AFD con el algoritmo de Hopcroft (refinamiento de particiones).
+		Los estados equivalentes se fusionan; el estado inicial conserva el número 1 y el resto
+		se numera en orden de recorrido en anchura. El bloque sin salida que no acepta (si no es el inicial)
+		se representa con el estado de error 0 y no se escribe como fila.
+	*/
+	public AFDTable minimizeAFD(AFDTable afd) {
+		int n = afd.stateCount;
+		int symbols = alphabet.length;
+
+		// Predecesores por símbolo en formato CSR, sobre estados internos 0..n-1 (estado del AFD - 1).
+		int[][] predOffsets = new int[symbols][n + 1];
+		int[][] predSources = new int[symbols][n];
+		for (int a = 0; a < symbols; a++) {
+			int[] offsets = predOffsets[a];
+			for (int s = 1; s <= n; s++) {
+				int target = afd.transitions[s][a];
+				if (target > 0) {
+					offsets[target - 1]++;
+				}
+			}
+			for (int t = 0; t < n; t++) {
+				offsets[t + 1] += offsets[t];
+			}
+			for (int s = n; s >= 1; s--) {
+				int target = afd.transitions[s][a];
+				if (target > 0) {
+					predSources[a][--offsets[target - 1]] = s - 1;
+				}
+			}
+		}
+
+		// Partición inicial: estados de aceptación y estados que no aceptan.
+		int[] elements = new int[n];
+		int[] location = new int[n];
+		int[] blockOf = new int[n];
+		int[] blockFirst = new int[n + 1];
+		int[] blockEnd = new int[n + 1];
+		int[] marked = new int[n + 1];
+		boolean[] inWorklist = new boolean[n + 1];
+		int[] worklist = new int[n + 1];
+		int worklistSize = 0;
+		int blockCount = 0;
+
+		int position = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			int first = position;
+			for (int s = 0; s < n; s++) {
+				if (afd.accepting[s + 1] == (pass == 0)) {
+					elements[position] = s;
+					location[s] = position;
+					blockOf[s] = blockCount;
+					position++;
+				}
+			}
+			if (position > first) {
+				blockFirst[blockCount] = first;
+				blockEnd[blockCount] = position;
+				inWorklist[blockCount] = true;
+				worklist[worklistSize++] = blockCount;
+				blockCount++;
+			}
+		}
+
+		int[] splitter = new int[n];
+		int[] touched = new int[n + 1];
+		while (worklistSize > 0) {
+			int block = worklist[--worklistSize];
+			inWorklist[block] = false;
+			int splitterSize = blockEnd[block] - blockFirst[block];
+			System.arraycopy(elements, blockFirst[block], splitter, 0, splitterSize);
+
+			for (int a = 0; a < symbols; a++) {
+				int touchedCount = 0;
+
+				// Marca los predecesores moviéndolos al inicio de su bloque.
+				for (int i = 0; i < splitterSize; i++) {
+					int target = splitter[i];
+					for (int k = predOffsets[a][target]; k < predOffsets[a][target + 1]; k++) {
+						int p = predSources[a][k];
+						int b = blockOf[p];
+						int boundary = blockFirst[b] + marked[b];
+						if (location[p] >= boundary) {
+							int other = elements[boundary];
+							elements[location[p]] = other;
+							location[other] = location[p];
+							elements[boundary] = p;
+							location[p] = boundary;
+							if (marked[b]++ == 0) {
+								touched[touchedCount++] = b;
+							}
+						}
+					}
+				}
+
+				// Divide cada bloque tocado en su parte marcada y su parte sin marcar.
+				for (int t = 0; t < touchedCount; t++) {
+					int b = touched[t];
+					int markedCount = marked[b];
+					marked[b] = 0;
+					if (markedCount == blockEnd[b] - blockFirst[b]) {
+						continue;
+					}
+					int newBlock = blockCount++;
+					blockFirst[newBlock] = blockFirst[b];
+					blockEnd[newBlock] = blockFirst[b] + markedCount;
+					blockFirst[b] = blockEnd[newBlock];
+					for (int i = blockFirst[newBlock]; i < blockEnd[newBlock]; i++) {
+						blockOf[elements[i]] = newBlock;
+					}
+
+					if (inWorklist[b]) {
+						inWorklist[newBlock] = true;
+						worklist[worklistSize++] = newBlock;
+					} else {
+						int smaller = markedCount <= blockEnd[b] - blockFirst[b] ? newBlock : b;
+						inWorklist[smaller] = true;
+						worklist[worklistSize++] = smaller;
+					}
+				}
+			}
+		}
+
+		// Identifica el bloque sin salida que no acepta, que se representará con el estado de error 0.
+		int initialBlock = blockOf[0];
+		int deadBlock = -1;
+		for (int b = 0; b < blockCount && deadBlock < 0; b++) {
+			int representative = elements[blockFirst[b]];
+			if (b == initialBlock || afd.accepting[representative + 1]) {
+				continue;
+			}
+			boolean selfLoop = true;
+			for (int a = 0; a < symbols && selfLoop; a++) {
+				int target = afd.transitions[representative + 1][a];
+				selfLoop = target > 0 && blockOf[target - 1] == b;
+			}
+			if (selfLoop) {
+				deadBlock = b;
+			}
+		}
+
+		// Renumera los bloques en orden de recorrido en anchura desde el bloque inicial.
+		int[] newNumber = new int[blockCount];
+		Arrays.fill(newNumber, -1);
+		if (deadBlock >= 0) {
+			newNumber[deadBlock] = 0;
+		}
+		int[] queue = new int[blockCount];
+		int head = 0;
+		int tail = 0;
+		int nextNumber = 1;
+		newNumber[initialBlock] = nextNumber++;
+		queue[tail++] = initialBlock;
+		while (head < tail) {
+			int b = queue[head++];
+			int representative = elements[blockFirst[b]];
+			for (int a = 0; a < symbols; a++) {
+				int target = afd.transitions[representative + 1][a];
+				if (target > 0 && newNumber[blockOf[target - 1]] < 0) {
+					int targetBlock = blockOf[target - 1];
+					newNumber[targetBlock] = nextNumber++;
+					queue[tail++] = targetBlock;
+				}
+			}
+		}
+
+		AFDTable minimized = new AFDTable(nextNumber - 1);
+		for (int i = 0; i < tail; i++) {
+			int b = queue[i];
+			int number = newNumber[b];
+			int representative = elements[blockFirst[b]];
+			minimized.accepting[number] = afd.accepting[representative + 1];
+			for (int a = 0; a < symbols; a++) {
+				int target = afd.transitions[representative + 1][a];
+				minimized.transitions[number][a] = target > 0 ? newNumber[blockOf[target - 1]] : 0;
+			}
+		}
+		return minimized;
+	}
+
+	// Tabla de un AFD completo con estados 1..n; la fila 0 corresponde al estado de error y no se usa.
+	public final class AFDTable {
+		public final int stateCount;
+		public final int[][] transitions; // transitions[estado][símbolo - 1]
+		public final boolean[] accepting;
+
+		AFDTable(int stateCount) {
+			this.stateCount = stateCount;
+			this.transitions = new int[stateCount + 1][alphabet.length];
+			this.accepting = new boolean[stateCount + 1];
+		}
+	}
+
+	// Escribe los rangos de los tokens como líneas "inicio,fin" sin crear objetos por token.
+	private static final class SpanWriter implements TokenHandler, Closeable {
+		private final FileOutputStream out;
+		private final byte[] buffer = new byte[1 << 16];
+		private int size;
+
+		SpanWriter(String path) throws IOException {
+			out = new FileOutputStream(path);
+		}
+
+		@Override
+		public void token(long start, long end) throws IOException {
+			if (size > buffer.length - 48) {
+				flush();
+			}
+			writeNumber(start);
+			buffer[size++] = ',';
+			writeNumber(end);
+			buffer[size++] = '\n';
+		}
+
+		private void writeNumber(long value) {
+			int digits = 1;
+			for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+				digits++;
+			}
+			for (int i = size + digits - 1; i >= size; i--) {
+				buffer[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+			size += digits;
+		}
+
+		private void flush() throws IOException {
+			out.write(buffer, 0, size);
+			size = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				out.close();
+			}
+		}
+	}
+
 	/*
 		El metodo main debe recibir como primer argumento el path
 		donde se encuentra el archivo ".afd" y debe empezar a evaluar
@@ -362,13 +3252,34 @@ public class AFN {
 		de la forma que desee. Si se envia la bandera "-to-afd", entonces en vez de
 		evaluar, debe generar un archivo .afd
 	*/
-	public static void main(String[] args) throws FileNotFoundException {
+	public static void main(String[] args) throws IOException {
+		// La bandera "-optimize" (en cualquier posición) aplica 'optimize' después de cargar el AFN, y "-metrics"
+		// activa las métricas desde la carga (igual que -Dafn.metrics=true) e imprime el reporte al terminar.
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		boolean optimize = arguments.remove("-optimize");
+		if (arguments.remove("-metrics")) {
+			System.setProperty("afn.metrics", "true");
+		}
+		args = arguments.toArray(new String[0]);
+
 		if (args.length == 0) {
 			System.out.println("No se ha proporcionado el path del archivo.");
 			return;
 		}
 
-		AFN afnFile = new AFN(args[0]);
+		AFN afnFile;
+		try {
+			afnFile = new AFN(args[0]);
+		} catch (AFNFormatException e) {
+			System.err.println("Error de formato en " + args[0] + ": " + e.getMessage());
+			return;
+		} catch (UncheckedIOException e) {
+			System.err.println(e.getMessage() + ": " + e.getCause().getMessage());
+			return;
+		}
+		if (optimize) {
+			System.out.println(afnFile.optimize());
+		}
 
 		// Comprueba si el segundo argumento del programa es "-to-afd", lo que indica la solicitud de convertir el AFN a AFD.
 		if (args.length > 1 && args[1].equals("-to-afd")) {
@@ -379,9 +3290,85 @@ public class AFN {
 				return; // Termina la ejecución si no se proporciona el path de salida.
 			}
 			// Llama al método para convertir el AFN a AFD, pasando el path de salida como argumento.
-			afnFile.toAFD(args[2]);
+			// Con la bandera "-minimize" el AFD se minimiza antes de escribirse y con "-parallel"
+			// la construcción de subconjuntos usa todos los procesadores disponibles. Las banderas "-max-states N"
+			// y "-memory-budget MB" usan la construcción con memoria acotada.
+			boolean minimize = false;
+			int parallelism = 1;
+			int maxAFDStates = 0;
+			long memoryBudgetBytes = 0;
+			for (int i = 3; i < args.length; i++) {
+				if (args[i].equals("-minimize")) {
+					minimize = true;
+				} else if (args[i].equals("-parallel")) {
+					parallelism = Runtime.getRuntime().availableProcessors();
+				} else if (args[i].equals("-max-states") && i + 1 < args.length) {
+					maxAFDStates = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-memory-budget") && i + 1 < args.length) {
+					memoryBudgetBytes = Long.parseLong(args[++i]) << 20;
+				} else {
+					System.out.println("Bandera desconocida: " + args[i]);
+					return;
+				}
+			}
+
+			if (maxAFDStates > 0 || memoryBudgetBytes > 0) {
+				if (minimize || parallelism > 1) {
+					System.out.println("La construcción con memoria acotada no se puede combinar con -minimize ni -parallel.");
+					return;
+				}
+				try {
+					afnFile.toAFDBounded(args[2],
+							memoryBudgetBytes > 0 ? memoryBudgetBytes : Long.MAX_VALUE,
+							maxAFDStates > 0 ? maxAFDStates : Integer.MAX_VALUE);
+				} catch (IllegalStateException e) {
+					System.err.println(e.getMessage());
+					return;
+				}
+			} else {
+				afnFile.toAFD(args[2], minimize, parallelism);
+			}
 			// Imprime un mensaje indicando que la conversión ha sido completada y muestra el path donde se guardaron los resultados.
 			System.out.println("Conversión a AFD completada. Resultados guardados en: " + args[2]);
+		} else if (args.length > 1 && (args[1].equals("-compile") || args[1].equals("-decompile"))) {
+			// "-compile" genera la imagen binaria del AFN; "-decompile" la vuelve a escribir como texto .afn.
+			if (args.length < 3) {
+				System.out.println("No se ha proporcionado el path de salida.");
+				return;
+			}
+			if (args[1].equals("-compile")) {
+				afnFile.saveCompiledAFN(args[2]);
+			} else {
+				afnFile.saveAFN(args[2]);
+			}
+			System.out.println("AFN guardado en: " + args[2]);
+		} else if (args.length > 1 && args[1].equals("-batch")) {
+			// Modo por lotes: evalúa todas las líneas de un archivo y escribe T/F por línea en el archivo de salida.
+			// Con "-shared-prefixes" las cadenas de cada bloque se ordenan para simular una sola vez sus prefijos comunes.
+			if (args.length < 4 || (args.length > 4 && !args[4].equals("-shared-prefixes"))) {
+				System.out.println("Uso: java AFN archivo.afn -batch ENTRADA SALIDA [-shared-prefixes]");
+				return;
+			}
+			long start = System.nanoTime();
+			long evaluated = afnFile.evaluateBatch(args[2], args[3], Runtime.getRuntime().availableProcessors(), args.length > 4);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Evaluadas %d cadenas en %.3f s (%.0f cadenas/s). Resultados guardados en: %s%n",
+					evaluated, seconds, evaluated / Math.max(seconds, 1e-9), args[3]);
+		} else if (args.length > 1 && args[1].equals("-scan")) {
+			// Modo de escaneo: escribe "inicio,fin" (posiciones en bytes) de cada token más largo encontrado en la entrada.
+			if (args.length < 4) {
+				System.out.println("Uso: java AFN archivo.afn -scan ENTRADA SALIDA");
+				return;
+			}
+			long start = System.nanoTime();
+			long tokens;
+			try (SpanWriter writer = new SpanWriter(args[3])) {
+				tokens = afnFile.scan(args[2], writer);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			double megabytes = new File(args[2]).length() / (double) (1 << 20);
+			System.out.printf("Encontrados %d tokens en %.3f s (%.1f MB/s). Resultados guardados en: %s%n",
+					tokens, seconds, megabytes / Math.max(seconds, 1e-9), args[3]);
 		} else {
 			// Si no se pide convertir a AFD, entra en modo de evaluación de cadenas.
 
@@ -405,5 +3392,8 @@ public class AFN {
 			}
 		}
 
+		if (afnFile.getMetrics() != null) {
+			System.out.println(afnFile.getMetrics());
+		}
 	}
 }
@@ -0,0 +1,291 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+    Benchmarks de AFN.loadAFN, AFN.accept y AFN.toAFD sobre automatas sinteticos generados con AFNGenerator.
+    Cada medicion hace iteraciones de calentamiento y de medicion de duracion fija y reporta la media, la
+    desviacion estandar y los bytes reservados por operacion. Con -json los resultados se exportan en un
+    formato parecido al de JMH para comparar entre versiones.
+
+    Uso: java AFNBenchmark [-states 100,1000] [-alphabet 2,16] [-lambda 0.1] [-fanout 2]
+                           [-length 16,1024] [-nth 8,12] [-warmup 3] [-iterations 5] [-time-ms 500]
+                           [-seed 42] [-json resultados.json]
+*/
+public class AFNBenchmark {
+    private static final int STRINGS_PER_OP = 64;
+
+    // Evita que el JIT elimine las llamadas medidas.
+    private static volatile long sink;
+
+    private int[] stateCounts = { 100, 1000 };
+    private int[] alphabetSizes = { 2, 16 };
+    private double lambdaDensity = 0.1;
+    private int fanOut = 2;
+    private int[] lengths = { 16, 1024 };
+    private int[] nthValues = { 8, 12 };
+    private int warmupIterations = 3;
+    private int measurementIterations = 5;
+    private long iterationMillis = 500;
+    private long seed = 42;
+    private String jsonPath;
+
+    private final List<Result> results = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        AFNBenchmark benchmark = new AFNBenchmark();
+        benchmark.parseArguments(args);
+        benchmark.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                throw new IllegalArgumentException("Falta el valor de " + args[i]);
+            }
+            switch (args[i]) {
+                case "-states": stateCounts = parseInts(value); break;
+                case "-alphabet": alphabetSizes = parseInts(value); break;
+                case "-lambda": lambdaDensity = Double.parseDouble(value); break;
+                case "-fanout": fanOut = Integer.parseInt(value); break;
+                case "-length": lengths = parseInts(value); break;
+                case "-nth": nthValues = parseInts(value); break;
+                case "-warmup": warmupIterations = Integer.parseInt(value); break;
+                case "-iterations": measurementIterations = Integer.parseInt(value); break;
+                case "-time-ms": iterationMillis = Long.parseLong(value); break;
+                case "-seed": seed = Long.parseLong(value); break;
+                case "-json": jsonPath = value; break;
+                default: throw new IllegalArgumentException("Argumento desconocido: " + args[i]);
+            }
+            i++;
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private void run() throws Exception {
+        AFNGenerator generator = new AFNGenerator(seed);
+
+        for (int states : stateCounts) {
+            for (int alphabetSize : alphabetSizes) {
+                String[] alphabet = AFNGenerator.alphabet(alphabetSize);
+                File file = AFNGenerator.writeTemp(alphabet, generator.randomAcceptanceStates(states),
+                        generator.randomAutomaton(states, alphabetSize, lambdaDensity, fanOut));
+                Map<String, Object> params = new LinkedHashMap<>();
+                params.put("family", "random");
+                params.put("states", states);
+                params.put("alphabet", alphabetSize);
+                params.put("lambdaDensity", lambdaDensity);
+                params.put("fanOut", fanOut);
+
+                benchmarkLoad(file, params);
+                for (int length : lengths) {
+                    benchmarkAccept(file, params, generator, alphabet, length);
+                }
+            }
+        }
+
+        for (int n : nthValues) {
+            File file = AFNGenerator.writeTemp(AFNGenerator.nthFromEndAlphabet(),
+                    AFNGenerator.nthFromEndAcceptanceStates(n), AFNGenerator.nthFromEnd(n));
+            Map<String, Object> params = new LinkedHashMap<>();
+            params.put("family", "nthFromEnd");
+            params.put("n", n);
+
+            benchmarkLoad(file, params);
+            for (int length : lengths) {
+                benchmarkAccept(file, params, generator, AFNGenerator.nthFromEndAlphabet(), length);
+            }
+            benchmarkToAFD(file, params);
+        }
+
+        if (jsonPath != null) {
+            writeJson(jsonPath);
+            System.out.println("Resultados guardados en: " + jsonPath);
+        }
+    }
+
+    private void benchmarkLoad(File file, Map<String, Object> params) throws Exception {
+        String path = file.getPath();
+        measure("loadAFN", params, "ops/s", 1, () -> sink += new AFN(path).getLazyDFABudget());
+    }
+
+    // Mide caracteres por segundo con el AFD perezoso, con la simulacion directa del AFN y con acceptAll intercalado.
+    private void benchmarkAccept(File file, Map<String, Object> params, AFNGenerator generator, String[] alphabet, int length) throws Exception {
+        String[] inputs = new String[STRINGS_PER_OP];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = generator.randomString(alphabet, length);
+        }
+        boolean[] results = new boolean[inputs.length];
+
+        for (String engine : new String[] { "lazyDFA", "nfa", "interleaved" }) {
+            AFN afn = new AFN(file.getPath());
+            if (engine.equals("nfa")) {
+                afn.setLazyDFABudget(0);
+            }
+            Map<String, Object> acceptParams = new LinkedHashMap<>(params);
+            acceptParams.put("length", length);
+            acceptParams.put("engine", engine);
+            boolean interleaved = engine.equals("interleaved");
+            measure("accept", acceptParams, "chars/s", (long) STRINGS_PER_OP * length, () -> {
+                long accepted = 0;
+                if (interleaved) {
+                    afn.acceptAll(inputs, 0, inputs.length, results);
+                    for (boolean result : results) {
+                        if (result) {
+                            accepted++;
+                        }
+                    }
+                } else {
+                    for (String input : inputs) {
+                        if (afn.accept(input)) {
+                            accepted++;
+                        }
+                    }
+                }
+                sink += accepted;
+            });
+        }
+    }
+
+    private void benchmarkToAFD(File file, Map<String, Object> params) throws Exception {
+        AFN afn = new AFN(file.getPath());
+        File output = File.createTempFile("afd-", ".afd");
+        output.deleteOnExit();
+        String path = output.getPath();
+        measure("toAFD", params, "ops/s", 1, () -> afn.toAFD(path));
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    /*
+        Ejecuta la operacion en iteraciones de duracion fija. 'unitsPerOp' convierte operaciones en la
+        unidad reportada (por ejemplo caracteres evaluados por operacion).
+    */
+    private void measure(String name, Map<String, Object> params, String unit, long unitsPerOp, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(operation);
+        }
+
+        double[] samples = new double[measurementIterations];
+        long totalOps = 0;
+        long totalAllocated = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long ops = runIteration(operation);
+            long elapsed = System.nanoTime() - start;
+            totalAllocated += allocatedBytes() - allocatedBefore;
+            totalOps += ops;
+            samples[i] = ops * unitsPerOp / (elapsed / 1e9);
+        }
+
+        Result result = new Result(name, params, unit, samples,
+                allocatedBytes() < 0 ? Double.NaN : (double) totalAllocated / totalOps);
+        results.add(result);
+        System.out.println(result);
+    }
+
+    private long runIteration(Operation operation) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+        long ops = 0;
+        do {
+            operation.run();
+            ops++;
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+
+    // Bytes reservados por el hilo actual, o -1 si la JVM no lo soporta.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private void writeJson(String path) throws FileNotFoundException {
+        try (PrintWriter out = new PrintWriter(path)) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                out.print(results.get(i).toJson());
+                out.println(i + 1 < results.size() ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    private static final class Result {
+        final String benchmark;
+        final Map<String, Object> params;
+        final String unit;
+        final double[] samples;
+        final double mean;
+        final double error;
+        final double allocatedPerOp;
+
+        Result(String benchmark, Map<String, Object> params, String unit, double[] samples, double allocatedPerOp) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.unit = unit;
+            this.samples = samples;
+            this.allocatedPerOp = allocatedPerOp;
+
+            double sum = 0;
+            for (double sample : samples) {
+                sum += sample;
+            }
+            mean = sum / samples.length;
+            double squares = 0;
+            for (double sample : samples) {
+                squares += (sample - mean) * (sample - mean);
+            }
+            error = samples.length > 1 ? Math.sqrt(squares / (samples.length - 1)) : 0;
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("  {\"benchmark\": \"").append(benchmark).append("\", \"params\": {");
+            int i = 0;
+            for (Map.Entry<String, Object> param : params.entrySet()) {
+                json.append(i++ > 0 ? ", " : "").append('"').append(param.getKey()).append("\": \"").append(param.getValue()).append('"');
+            }
+            json.append("}, \"primaryMetric\": {\"score\": ").append(number(mean))
+                    .append(", \"scoreError\": ").append(number(error))
+                    .append(", \"scoreUnit\": \"").append(unit).append("\", \"rawData\": [");
+            for (int s = 0; s < samples.length; s++) {
+                json.append(s > 0 ? ", " : "").append(number(samples[s]));
+            }
+            json.append("]}, \"secondaryMetrics\": {\"alloc.norm\": {\"score\": ").append(number(allocatedPerOp))
+                    .append(", \"scoreUnit\": \"B/op\"}}}");
+            return json.toString();
+        }
+
+        private static String number(double value) {
+            return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.3f", value);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-8s %-70s %,18.1f ± %,14.1f %-8s %,12.0f B/op",
+                    benchmark, params, mean, error, unit, allocatedPerOp);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.StringJoiner;
+
+/*
+    Generador de AFN sinteticos en el formato .afn, usado por los benchmarks y las pruebas.
+    Todos los automatas usan el estado 0 como estado de error y el estado 1 como estado inicial;
+    una casilla "0" significa que no hay transicion.
+*/
+public class AFNGenerator {
+    private static final String SYMBOLS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final Random random;
+
+    public AFNGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static String[] alphabet(int size) {
+        if (size < 1 || size > SYMBOLS.length()) {
+            throw new IllegalArgumentException("El alfabeto debe tener entre 1 y " + SYMBOLS.length() + " simbolos: " + size);
+        }
+        String[] alphabet = new String[size];
+        for (int i = 0; i < size; i++) {
+            alphabet[i] = String.valueOf(SYMBOLS.charAt(i));
+        }
+        return alphabet;
+    }
+
+    /*
+        AFN aleatorio con 'states' estados (incluido el 0). Cada estado tiene transicion con cada simbolo
+        con probabilidad 0.8 hacia entre 1 y 'fanOut' destinos, y transicion lambda con probabilidad
+        'lambdaDensity'. Alrededor de un quinto de los estados son de aceptacion.
+    */
+    public int[][][] randomAutomaton(int states, int alphabetSize, double lambdaDensity, int fanOut) {
+        if (states < 2) {
+            throw new IllegalArgumentException("Se necesitan al menos 2 estados: " + states);
+        }
+        int[][][] table = new int[alphabetSize + 1][states][];
+        for (int symbol = 0; symbol <= alphabetSize; symbol++) {
+            double probability = symbol == 0 ? lambdaDensity : 0.8;
+            for (int state = 0; state < states; state++) {
+                if (state == 0 || random.nextDouble() >= probability) {
+                    table[symbol][state] = new int[] { 0 };
+                    continue;
+                }
+                int[] targets = new int[1 + random.nextInt(Math.max(1, fanOut))];
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = 1 + random.nextInt(states - 1);
+                }
+                table[symbol][state] = targets;
+            }
+        }
+        return table;
+    }
+
+    public int[] randomAcceptanceStates(int states) {
+        int count = Math.max(1, (states - 1) / 5);
+        int[] accepting = new int[count];
+        for (int i = 0; i < count; i++) {
+            accepting[i] = 1 + random.nextInt(states - 1);
+        }
+        return accepting;
+    }
+
+    /*
+        Familia de peor caso para la determinizacion: "el n-esimo simbolo desde el final es 1" sobre {0,1}.
+        El AFN tiene n + 2 estados y el AFD equivalente tiene 2^n estados alcanzables.
+    */
+    public static int[][][] nthFromEnd(int n) {
+        int states = n + 2;
+        int[][][] table = new int[3][states][];
+        for (int state = 0; state < states; state++) {
+            table[0][state] = new int[] { 0 };
+            table[1][state] = new int[] { 0 };
+            table[2][state] = new int[] { 0 };
+        }
+        table[1][1] = new int[] { 1 };
+        table[2][1] = new int[] { 1, 2 };
+        for (int state = 2; state <= n; state++) {
+            table[1][state] = new int[] { state + 1 };
+            table[2][state] = new int[] { state + 1 };
+        }
+        return table;
+    }
+
+    public static String[] nthFromEndAlphabet() {
+        return new String[] { "0", "1" };
+    }
+
+    public static int[] nthFromEndAcceptanceStates(int n) {
+        return new int[] { n + 1 };
+    }
+
+    // Cadena aleatoria de la longitud dada sobre el alfabeto.
+    public String randomString(String[] alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return builder.toString();
+    }
+
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    // Escribe el automata en formato .afn: alfabeto, cantidad de estados, aceptacion y una fila por simbolo (lambda primero).
+    public static void write(File file, String[] alphabet, int[] acceptanceStates, int[][][] table) throws IOException {
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println(String.join(",", alphabet));
+            out.println(table[0].length);
+
+            StringJoiner acceptJoiner = new StringJoiner(",");
+            for (int state : acceptanceStates) {
+                acceptJoiner.add(Integer.toString(state));
+            }
+            out.println(acceptJoiner.toString());
+
+            StringBuilder row = new StringBuilder();
+            for (int[][] symbolRow : table) {
+                row.setLength(0);
+                for (int state = 0; state < symbolRow.length; state++) {
+                    if (state > 0) {
+                        row.append(',');
+                    }
+                    int[] targets = symbolRow[state];
+                    for (int i = 0; i < targets.length; i++) {
+                        if (i > 0) {
+                            row.append(';');
+                        }
+                        row.append(targets[i]);
+                    }
+                }
+                out.println(row);
+            }
+        }
+    }
+
+    // Crea un archivo temporal .afn con el automata; se borra al terminar la JVM.
+    public static File writeTemp(String[] alphabet, int[] acceptanceStates, int[][][] table) throws IOException {
+        File file = File.createTempFile("afn-", ".afn");
+        file.deleteOnExit();
+        write(file, alphabet, acceptanceStates, table);
+        return file;
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Cliente de carga para AFNServer: abre varias conexiones, envia las cadenas de un archivo (una por linea, en
+    ciclo) y reporta pedidos por segundo y la latencia de cada pedido (p50, p99, p99.9 y maximo). Con -pipeline N
+    cada conexion envia N pedidos antes de leer las respuestas; la latencia de un pedido va desde que se envio
+    su grupo hasta que llega su respuesta.
+
+    Uso: java AFNLoadGenerator [-port N | -unix PATH] -id ID -input cadenas.txt [-connections 4]
+                               [-requests 100000] [-warmup 10000] [-pipeline 1]
+    (-requests y -warmup son por conexion)
+*/
+public class AFNLoadGenerator {
+    private SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), AFNServer.DEFAULT_PORT);
+    private String id;
+    private String inputPath;
+    private int connections = 4;
+    private int requests = 100_000;
+    private int warmup = 10_000;
+    private int pipeline = 1;
+
+    public static void main(String[] args) throws Exception {
+        AFNLoadGenerator generator = new AFNLoadGenerator();
+        generator.parseArguments(args);
+        if (generator.id == null || generator.inputPath == null) {
+            System.out.println("Uso: java AFNLoadGenerator [-port N | -unix PATH] -id ID -input cadenas.txt"
+                    + " [-connections 4] [-requests 100000] [-warmup 10000] [-pipeline 1]");
+            return;
+        }
+        generator.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                throw new IllegalArgumentException("Falta el valor de " + args[i]);
+            }
+            switch (args[i]) {
+                case "-port": address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(value)); break;
+                case "-unix": address = UnixDomainSocketAddress.of(value); break;
+                case "-id": id = value; break;
+                case "-input": inputPath = value; break;
+                case "-connections": connections = Integer.parseInt(value); break;
+                case "-requests": requests = Integer.parseInt(value); break;
+                case "-warmup": warmup = Integer.parseInt(value); break;
+                case "-pipeline": pipeline = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Argumento desconocido: " + args[i]);
+            }
+            i++;
+        }
+        if (connections < 1 || requests < 1 || warmup < 0 || pipeline < 1) {
+            throw new IllegalArgumentException("-connections, -requests y -pipeline deben ser positivos y -warmup no negativo");
+        }
+    }
+
+    private void run() throws Exception {
+        List<String> strings = Files.readAllLines(Paths.get(inputPath), StandardCharsets.UTF_8);
+        if (strings.isEmpty()) {
+            throw new IllegalArgumentException("El archivo de cadenas esta vacio: " + inputPath);
+        }
+
+        Client[] clients = new Client[connections];
+        for (int c = 0; c < connections; c++) {
+            clients[c] = new Client(strings, c * strings.size() / connections);
+        }
+        for (Client client : clients) {
+            client.start();
+        }
+        for (Client client : clients) {
+            client.join();
+            if (client.failure != null) {
+                throw client.failure;
+            }
+        }
+
+        // Desde que la primera conexion empezo a medir hasta que la ultima termino.
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        long accepted = 0;
+        long errors = 0;
+        long[] latencies = new long[connections * requests];
+        for (int c = 0; c < connections; c++) {
+            start = Math.min(start, clients[c].measureStart);
+            end = Math.max(end, clients[c].measureEnd);
+            accepted += clients[c].accepted;
+            errors += clients[c].errors;
+            System.arraycopy(clients[c].latencies, 0, latencies, c * requests, requests);
+        }
+        Arrays.sort(latencies);
+        double seconds = (end - start) / 1e9;
+
+        System.out.printf(Locale.ROOT, "%d pedidos en %.3f s (%.0f pedidos/s), %d conexiones, pipeline %d%n",
+                latencies.length, seconds, latencies.length / Math.max(seconds, 1e-9), connections, pipeline);
+        System.out.printf(Locale.ROOT, "Aceptadas: %d, rechazadas: %d, errores: %d%n",
+                accepted, latencies.length - accepted - errors, errors);
+        System.out.printf(Locale.ROOT, "Latencia (us): p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                percentile(latencies, 0.50) / 1e3, percentile(latencies, 0.99) / 1e3,
+                percentile(latencies, 0.999) / 1e3, latencies[latencies.length - 1] / 1e3);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    // Una conexion: primero los pedidos de calentamiento y despues los medidos, en grupos de 'pipeline'.
+    private final class Client extends Thread {
+        final List<String> strings;
+        int next; // Siguiente cadena a enviar
+        final long[] latencies = new long[requests];
+        long accepted;
+        long errors;
+        long measureStart;
+        long measureEnd;
+        Exception failure;
+
+        Client(List<String> strings, int first) {
+            this.strings = strings;
+            this.next = first;
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel channel = SocketChannel.open(address instanceof UnixDomainSocketAddress
+                            ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET)) {
+                channel.connect(address);
+                BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+                send(in, out, warmup, null);
+                measureStart = System.nanoTime();
+                send(in, out, requests, latencies);
+                measureEnd = System.nanoTime();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        private void send(BufferedReader in, Writer out, int count, long[] latencies) throws IOException {
+            for (int done = 0; done < count; ) {
+                int group = Math.min(pipeline, count - done);
+                long sent = System.nanoTime();
+                for (int i = 0; i < group; i++) {
+                    out.write(id);
+                    out.write(' ');
+                    out.write(strings.get(next));
+                    out.write('\n');
+                    next = next + 1 < strings.size() ? next + 1 : 0;
+                }
+                out.flush();
+                for (int i = 0; i < group; i++) {
+                    String response = in.readLine();
+                    if (response == null) {
+                        throw new IOException("El servidor cerro la conexion");
+                    }
+                    if (latencies != null) {
+                        latencies[done + i] = System.nanoTime() - sent;
+                        if (response.equals("T")) {
+                            accepted++;
+                        } else if (!response.equals("F")) {
+                            errors++;
+                        }
+                    }
+                }
+                done += group;
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+    Metricas opcionales de un AFN. Se activan con AFN.enableMetrics() o, para todos los AFN desde su carga,
+    con la propiedad del sistema -Dafn.metrics=true. Mientras estan desactivadas el AFN solo revisa un campo
+    nulo por operacion. Con metricas activas 'accept', 'acceptAll' y 'acceptAllSharedPrefixes' siguen usando
+    el mismo motor (AFD perezoso o bitsets) y cada hilo cuenta sus pasos en un Tally propio que se suma a estos
+    contadores al terminar cada cadena o lote. Cada carga, cadena evaluada con 'accept' y fase de toAFD tambien
+    se emite como evento de JDK Flight Recorder (categoria "AFN") cuando hay una grabacion activa.
+
+    Todos los contadores se pueden actualizar desde varios hilos a la vez.
+*/
+public class AFNMetrics {
+    // Histograma por potencias de dos: la casilla b cuenta los valores en [2^(b-1), 2^b), y la casilla 0 los ceros.
+    private static final int BUCKETS = 64;
+
+    private final LongAdder strings = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder characters = new LongAdder();
+    private final LongAdder earlyRejections = new LongAdder();
+    private final LongAdder closureIterations = new LongAdder();
+    private final AtomicLongArray activeSetSizes = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    private final LongAdder afdStatesDiscovered = new LongAdder();
+    private final LongAdder afdBuildNanos = new LongAdder();
+    private final LongAdder afdMinimizeNanos = new LongAdder();
+    private final LongAdder afdWriteNanos = new LongAdder();
+
+    // Suma los contadores del Tally y lo deja en cero para la siguiente cadena o lote.
+    void add(Tally tally) {
+        strings.add(tally.strings);
+        accepted.add(tally.accepted);
+        characters.add(tally.characters);
+        earlyRejections.add(tally.earlyRejections);
+        closureIterations.add(tally.closureIterations);
+        for (int b = 0; b < BUCKETS; b++) {
+            if (tally.activeSetSizes[b] != 0) {
+                activeSetSizes.addAndGet(b, tally.activeSetSizes[b]);
+            }
+        }
+        tally.clear();
+    }
+
+    void recordLoad(long nanos) {
+        loads.increment();
+        loadNanos.add(nanos);
+    }
+
+    void recordAFDBuild(long nanos, int states) {
+        afdBuildNanos.add(nanos);
+        afdStatesDiscovered.add(states);
+    }
+
+    void recordAFDMinimize(long nanos) {
+        afdMinimizeNanos.add(nanos);
+    }
+
+    void recordAFDWrite(long nanos) {
+        afdWriteNanos.add(nanos);
+    }
+
+    private static int bucket(long value) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    public long getStrings() {
+        return strings.sum();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    // Caracteres leidos; una cadena rechazada antes de terminar solo cuenta los que se leyeron.
+    public long getCharacters() {
+        return characters.sum();
+    }
+
+    // Cadenas rechazadas antes de leerlas completas (conjunto sin estados vivos o simbolo fuera del alfabeto).
+    public long getEarlyRejections() {
+        return earlyRejections.sum();
+    }
+
+    // Estados agregados al aplicar clausuras lambda durante la evaluacion. Las transiciones que el AFD perezoso ya
+    // tenia en cache y los pasos de los AFN de hasta 64 estados (precalculados al cargar) no agregan nada.
+    public long getClosureIterations() {
+        return closureIterations.sum();
+    }
+
+    // Cantidad de pasos cuyo conjunto activo tuvo un tamano en [2^(bucket-1), 2^bucket) (bucket 0: conjunto vacio).
+    public long getActiveSetSizeCount(int bucket) {
+        return activeSetSizes.get(bucket);
+    }
+
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getLoadNanos() {
+        return loadNanos.sum();
+    }
+
+    public long getAFDStatesDiscovered() {
+        return afdStatesDiscovered.sum();
+    }
+
+    public long getAFDBuildNanos() {
+        return afdBuildNanos.sum();
+    }
+
+    public long getAFDMinimizeNanos() {
+        return afdMinimizeNanos.sum();
+    }
+
+    public long getAFDWriteNanos() {
+        return afdWriteNanos.sum();
+    }
+
+    public void reset() {
+        for (LongAdder counter : new LongAdder[] { strings, accepted, characters, earlyRejections, closureIterations,
+                loads, loadNanos, afdStatesDiscovered, afdBuildNanos, afdMinimizeNanos, afdWriteNanos }) {
+            counter.reset();
+        }
+        for (int b = 0; b < BUCKETS; b++) {
+            activeSetSizes.set(b, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "Cargas: %d (%.3f ms)%n", getLoads(), getLoadNanos() / 1e6));
+        report.append(String.format(Locale.ROOT, "Cadenas: %d evaluadas, %d aceptadas, %d rechazadas antes de terminar%n",
+                getStrings(), getAccepted(), getEarlyRejections()));
+        report.append(String.format(Locale.ROOT, "Caracteres procesados: %d, iteraciones de clausura lambda: %d%n",
+                getCharacters(), getClosureIterations()));
+        report.append("Tamano del conjunto activo por paso:");
+        boolean any = false;
+        for (int b = 0; b < BUCKETS; b++) {
+            long count = getActiveSetSizeCount(b);
+            if (count > 0) {
+                report.append(String.format(Locale.ROOT, "%n  %s: %d", b == 0 ? "0" : (b == 1 ? "1" : (1L << (b - 1)) + "-" + ((1L << b) - 1)), count));
+                any = true;
+            }
+        }
+        report.append(any ? "" : " sin datos").append(System.lineSeparator());
+        report.append(String.format(Locale.ROOT, "toAFD: %d estados descubiertos, construccion %.3f ms, minimizacion %.3f ms, escritura %.3f ms",
+                getAFDStatesDiscovered(), getAFDBuildNanos() / 1e6, getAFDMinimizeNanos() / 1e6, getAFDWriteNanos() / 1e6));
+        return report.toString();
+    }
+
+    /*
+        Contadores de evaluacion de un solo hilo, sin sincronizacion, para que el motor los actualice en cada paso
+        sin tocar contadores compartidos. Se suman a las metricas con AFNMetrics.add.
+    */
+    static final class Tally {
+        long strings;
+        long accepted;
+        long characters;
+        long earlyRejections;
+        long closureIterations;
+        final long[] activeSetSizes = new long[BUCKETS];
+        int maxActiveStates;
+
+        // Una cadena evaluada; 'readToEnd' es falso si se rechazo antes de leerla completa.
+        void string(boolean wasAccepted, boolean readToEnd) {
+            strings++;
+            if (wasAccepted) {
+                accepted++;
+            } else if (!readToEnd) {
+                earlyRejections++;
+            }
+        }
+
+        void activeSet(int size) {
+            activeSetSizes[bucket(size)]++;
+            maxActiveStates = Math.max(maxActiveStates, size);
+        }
+
+        void clear() {
+            strings = 0;
+            accepted = 0;
+            characters = 0;
+            earlyRejections = 0;
+            closureIterations = 0;
+            Arrays.fill(activeSetSizes, 0);
+            maxActiveStates = 0;
+        }
+    }
+
+    @Name("afn.Load")
+    @Label("Carga de AFN")
+    @Category("AFN")
+    static final class LoadEvent extends Event {
+        @Label("Archivo")
+        String path;
+
+        @Label("Estados")
+        int states;
+
+        @Label("Simbolos")
+        int symbols;
+    }
+
+    @Name("afn.Accept")
+    @Label("Evaluacion de cadena")
+    @Category("AFN")
+    static final class AcceptEvent extends Event {
+        @Label("Largo")
+        int length;
+
+        @Label("Caracteres leidos")
+        int consumed;
+
+        @Label("Aceptada")
+        boolean accepted;
+
+        @Label("Conjunto activo maximo")
+        int maxActiveStates;
+
+        @Label("Iteraciones de clausura")
+        long closureIterations;
+    }
+
+    @Name("afn.ToAFDPhase")
+    @Label("Fase de toAFD")
+    @Category("AFN")
+    @Description("Construccion de subconjuntos, minimizacion o escritura del AFD")
+    static final class ToAFDPhaseEvent extends Event {
+        @Label("Fase")
+        String phase;
+
+        @Label("Estados del AFD")
+        int states;
+    }
+}
@@ -0,0 +1,284 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Servidor de evaluacion: carga uno o mas AFN una sola vez y responde pedidos por un socket local, para no
+    pagar el arranque de la JVM ni la carga del .afn en cada evaluacion.
+
+    Protocolo (UTF-8, una linea por pedido): "id cadena" responde "T" si el AFN 'id' acepta la cadena y "F" si
+    no. La cadena es todo lo que sigue al primer espacio y puede ser vacia ("id" o "id "). Un id desconocido
+    responde "E mensaje". Se pueden enviar varios pedidos sin esperar las respuestas; llegan en el mismo orden.
+
+    Cada conexion se atiende en su propio hilo (virtual si la JVM los tiene). Los archivos .afn se vigilan y,
+    cuando cambian, se cargan de nuevo en segundo plano y la version nueva reemplaza a la anterior de forma
+    atomica: los pedidos en curso terminan con la version que ya tenian. Si la version nueva no se puede
+    cargar (por ejemplo porque el archivo todavia se esta escribiendo) se mantiene la anterior.
+
+    Uso: java AFNServer [-port N | -unix PATH] [-optimize] [id=]archivo.afn ...
+    (sin "id=" el id es el nombre del archivo sin extension)
+*/
+public class AFNServer implements Closeable {
+    public static final int DEFAULT_PORT = 7420;
+
+    // Espera tras un cambio antes de recargar, para no leer un archivo a medio escribir.
+    private static final long RELOAD_DELAY_MS = 100;
+
+    private final Map<String, Path> files = new LinkedHashMap<>();
+    private final boolean optimize;
+
+    // Version vigente de cada AFN; se reemplaza completa al recargar y nunca se modifica despues de publicarse.
+    private final Map<String, AFN> automata = new ConcurrentHashMap<>();
+    private final Map<String, FileTime> loadedVersions = new ConcurrentHashMap<>();
+
+    private final ExecutorService connections = newConnectionExecutor();
+    private ServerSocketChannel server;
+    private WatchService watcher;
+    private Path unixSocket;
+    private volatile boolean closed;
+
+    // Carga cada archivo (id -> ruta); falla si alguno no se puede cargar.
+    public AFNServer(Map<String, String> files, boolean optimize) throws IOException {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("Se necesita al menos un AFN");
+        }
+        this.optimize = optimize;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Path path = Paths.get(file.getValue()).toAbsolutePath().normalize();
+            this.files.put(file.getKey(), path);
+            FileTime version = Files.getLastModifiedTime(path);
+            automata.put(file.getKey(), new AFN(path.toString(), optimize));
+            loadedVersions.put(file.getKey(), version);
+        }
+    }
+
+    // Version vigente del AFN 'id', o null si no existe.
+    public AFN get(String id) {
+        return automata.get(id);
+    }
+
+    public Set<String> ids() {
+        return files.keySet();
+    }
+
+    /*
+        Empieza a aceptar conexiones en la direccion dada (InetSocketAddress o UnixDomainSocketAddress) y a vigilar
+        los archivos. Devuelve la direccion real, util con el puerto 0.
+    */
+    public synchronized SocketAddress start(SocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("El servidor ya fue iniciado");
+        }
+        if (address instanceof UnixDomainSocketAddress) {
+            unixSocket = ((UnixDomainSocketAddress) address).getPath();
+            Files.deleteIfExists(unixSocket); // Socket de una ejecucion anterior
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+
+        watcher = files.values().iterator().next().getFileSystem().newWatchService();
+        Set<Path> directories = new HashSet<>();
+        for (Path path : files.values()) {
+            if (directories.add(path.getParent())) {
+                path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        }
+
+        Thread acceptor = new Thread(this::acceptConnections, "afn-server-acceptor");
+        acceptor.start();
+        Thread reloader = new Thread(this::watchFiles, "afn-server-watcher");
+        reloader.setDaemon(true);
+        reloader.start();
+        return server.getLocalAddress();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (server != null) {
+            server.close();
+            watcher.close();
+            if (unixSocket != null) {
+                Files.deleteIfExists(unixSocket);
+            }
+        }
+        connections.shutdownNow();
+    }
+
+    // Un hilo virtual por conexion si la JVM los tiene (Java 21+); si no, hilos de plataforma reutilizables.
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            try {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> serve(channel));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Error al aceptar una conexion: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        // Ultima version usada de cada AFN en esta conexion, para liberar el estado del hilo al cambiar de version.
+        Map<String, AFN> used = new HashMap<>();
+        try (channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(evaluate(line, used));
+                out.write('\n');
+                // Las respuestas de pedidos encadenados se envian juntas cuando no queda nada por leer.
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // El cliente cerro la conexion
+        } finally {
+            for (AFN afn : used.values()) {
+                afn.releaseThreadState();
+            }
+        }
+    }
+
+    private String evaluate(String line, Map<String, AFN> used) {
+        int space = line.indexOf(' ');
+        String id = space < 0 ? line : line.substring(0, space);
+        AFN afn = automata.get(id);
+        if (afn == null) {
+            return "E AFN desconocido: " + id;
+        }
+        AFN previous = used.put(id, afn);
+        if (previous != null && previous != afn) {
+            previous.releaseThreadState(); // Version reemplazada: que el hilo no la siga reteniendo
+        }
+        return afn.accept(space < 0 ? "" : line.substring(space + 1)) ? "T" : "F";
+    }
+
+    private void watchFiles() {
+        try {
+            while (!closed) {
+                WatchKey key = watcher.take();
+                Thread.sleep(RELOAD_DELAY_MS);
+                Path directory = (Path) key.watchable();
+                Set<Path> changed = new HashSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        changed.addAll(files.values()); // Se perdieron eventos: revisa todos
+                    } else {
+                        changed.add(directory.resolve((Path) event.context()));
+                    }
+                }
+                key.reset();
+                for (Map.Entry<String, Path> file : files.entrySet()) {
+                    if (changed.contains(file.getValue())) {
+                        reload(file.getKey(), file.getValue());
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // El servidor se esta cerrando
+        }
+    }
+
+    private void reload(String id, Path path) {
+        try {
+            FileTime version = Files.getLastModifiedTime(path);
+            if (version.equals(loadedVersions.get(id))) {
+                return; // Ya se cargo esta version
+            }
+            AFN fresh = new AFN(path.toString(), optimize);
+            automata.put(id, fresh);
+            loadedVersions.put(id, version);
+            System.out.println("AFN '" + id + "' recargado desde " + path);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se pudo recargar '" + id + "' (se mantiene la version anterior): " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        SocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        boolean optimize = false;
+        Map<String, String> files = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port") && i + 1 < args.length) {
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-unix") && i + 1 < args.length) {
+                address = UnixDomainSocketAddress.of(args[++i]);
+            } else if (args[i].equals("-optimize")) {
+                optimize = true;
+            } else {
+                int equals = args[i].indexOf('=');
+                String path = equals < 0 ? args[i] : args[i].substring(equals + 1);
+                String id = equals < 0 ? Paths.get(path).getFileName().toString().replaceFirst("\\.[^.]*$", "") : args[i].substring(0, equals);
+                files.put(id, path);
+            }
+        }
+        if (files.isEmpty()) {
+            System.out.println("Uso: java AFNServer [-port N | -unix PATH] [-optimize] [id=]archivo.afn ...");
+            return;
+        }
+
+        AFNServer server;
+        try {
+            server = new AFNServer(files, optimize);
+        } catch (FileNotFoundException | IllegalArgumentException e) {
+            System.err.println("No se pudo cargar el AFN: " + e.getMessage());
+            return;
+        }
+        SocketAddress bound = server.start(address);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Error al cerrar el servidor: " + e.getMessage());
+            }
+        }));
+        System.out.println("AFN cargados: " + String.join(", ", server.ids()));
+        System.out.println("Escuchando en " + bound);
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Evalua una cadena contra varios AFN en una sola pasada. Los automatas se combinan en uno solo:
+    cada fuente conserva sus estados en un rango propio, un nuevo estado inicial tiene transiciones
+    lambda hacia el estado inicial de cada fuente, y cada estado de aceptacion recuerda de que fuente
+    viene. Al terminar la cadena, las fuentes que aceptan son las duenas de los estados de aceptacion
+    activos. El alfabeto combinado es la union de los alfabetos, en orden de aparicion; con los simbolos
+    que no estan en su alfabeto, los estados de una fuente van al estado de error.
+
+    Estados del automata combinado: 0 es el error, 1 el nuevo inicial, y el estado 's' de la fuente 'k'
+    es base[k] + s.
+*/
+public class AFNUnion {
+    private final String[] paths;
+    private final int[] base; // Primer estado de cada fuente en el automata combinado
+    private final int[] sourceOf; // Fuente de cada estado del automata combinado, -1 para los estados 0 y 1
+    private final AFN combined;
+
+    // Matcher y buffer de estados reutilizables por hilo para no reservar memoria por cadena.
+    private final ThreadLocal<Evaluation> evaluations = ThreadLocal.withInitial(Evaluation::new);
+
+    public AFNUnion(String... paths) throws FileNotFoundException {
+        if (paths.length == 0) {
+            throw new IllegalArgumentException("Se necesita al menos un AFN");
+        }
+        this.paths = paths.clone();
+        AFN[] sources = new AFN[paths.length];
+        for (int k = 0; k < paths.length; k++) {
+            sources[k] = new AFN(paths[k]);
+        }
+
+        // Alfabeto combinado y, por fuente, el indice combinado de cada uno de sus simbolos.
+        Map<String, Integer> symbolIndexes = new LinkedHashMap<>();
+        int[][] symbolMaps = new int[sources.length][];
+        for (int k = 0; k < sources.length; k++) {
+            String[] alphabet = sources[k].getAlphabet();
+            symbolMaps[k] = new int[alphabet.length + 1];
+            for (int i = 0; i < alphabet.length; i++) {
+                Integer index = symbolIndexes.get(alphabet[i]);
+                if (index == null) {
+                    index = symbolIndexes.size() + 1;
+                    symbolIndexes.put(alphabet[i], index);
+                }
+                symbolMaps[k][i + 1] = index;
+            }
+        }
+        String[] alphabet = symbolIndexes.keySet().toArray(new String[0]);
+        checkSegmentation(sources, alphabet);
+
+        base = new int[sources.length];
+        int stateCount = 2;
+        for (int k = 0; k < sources.length; k++) {
+            base[k] = stateCount;
+            stateCount += sources[k].getMaxStates();
+        }
+        sourceOf = new int[stateCount + 1];
+        Arrays.fill(sourceOf, -1);
+        boolean[] acceptanceStates = new boolean[stateCount + 1];
+        for (int k = 0; k < sources.length; k++) {
+            for (int state = 0; state < sources[k].getMaxStates(); state++) {
+                sourceOf[base[k] + state] = k;
+                acceptanceStates[base[k] + state] = sources[k].isAcceptanceState(state);
+            }
+        }
+
+        int[][] offsets = new int[alphabet.length + 1][];
+        int[][] targets = new int[alphabet.length + 1][];
+        for (int symbolIndex = 0; symbolIndex <= alphabet.length; symbolIndex++) {
+            buildRow(sources, symbolMaps, symbolIndex, stateCount, offsets, targets);
+        }
+        combined = new AFN(alphabet, acceptanceStates, offsets, targets);
+    }
+
+    // Fila CSR del simbolo combinado 'symbolIndex': cada fuente aporta sus transiciones desplazadas a su rango.
+    private void buildRow(AFN[] sources, int[][] symbolMaps, int symbolIndex, int stateCount, int[][] offsets, int[][] targets) {
+        int[] rowOffsets = new int[stateCount + 2];
+        int[] rowTargets = new int[stateCount + sources.length];
+        int count = 0;
+
+        rowOffsets[0] = count;
+        rowTargets[count++] = 0;
+        rowOffsets[1] = count;
+        if (symbolIndex == 0) {
+            for (int k = 0; k < sources.length; k++) {
+                rowTargets[count++] = base[k] + 1; // Lambda hacia el estado inicial de cada fuente
+            }
+        } else {
+            rowTargets[count++] = 0;
+        }
+
+        for (int k = 0; k < sources.length; k++) {
+            int sourceSymbol = indexOf(symbolMaps[k], symbolIndex);
+            int[] sourceOffsets = sourceSymbol >= 0 ? sources[k].getTransitionOffsets(sourceSymbol) : null;
+            int[] sourceTargets = sourceSymbol >= 0 ? sources[k].getTransitionTargets(sourceSymbol) : null;
+            for (int state = 0; state < sources[k].getMaxStates(); state++) {
+                rowOffsets[base[k] + state] = count;
+                if (sourceOffsets == null) {
+                    rowTargets = ensureCapacity(rowTargets, count + 1);
+                    rowTargets[count++] = 0; // Simbolo fuera del alfabeto de la fuente
+                    continue;
+                }
+                int from = sourceOffsets[state];
+                int to = sourceOffsets[state + 1];
+                rowTargets = ensureCapacity(rowTargets, count + to - from);
+                for (int t = from; t < to; t++) {
+                    rowTargets[count++] = base[k] + sourceTargets[t];
+                }
+            }
+        }
+        rowOffsets[stateCount] = count;
+        rowOffsets[stateCount + 1] = count;
+        offsets[symbolIndex] = rowOffsets;
+        targets[symbolIndex] = Arrays.copyOf(rowTargets, count);
+    }
+
+    private static int indexOf(int[] symbolMap, int symbolIndex) {
+        if (symbolIndex == 0) {
+            return 0;
+        }
+        for (int i = 1; i < symbolMap.length; i++) {
+            if (symbolMap[i] == symbolIndex) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    /*
+        La cadena se divide en simbolos una sola vez, tomando siempre el simbolo mas largo del alfabeto combinado.
+        Para que cada fuente vea la misma division que veria sola, si un simbolo es prefijo propio de otro, toda
+        fuente que tenga el corto debe tener tambien el largo.
+    */
+    private void checkSegmentation(AFN[] sources, String[] alphabet) {
+        for (String shorter : alphabet) {
+            for (String longer : alphabet) {
+                if (longer.length() <= shorter.length() || !longer.startsWith(shorter)) {
+                    continue;
+                }
+                for (int k = 0; k < sources.length; k++) {
+                    List<String> own = Arrays.asList(sources[k].getAlphabet());
+                    if (own.contains(shorter) && !own.contains(longer)) {
+                        throw new IllegalArgumentException("No se pueden combinar los alfabetos: " + paths[k]
+                                + " tiene el simbolo '" + shorter + "' pero no '" + longer
+                                + "', asi que la cadena se dividiria distinto que en el AFN original");
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    public String getPath(int source) {
+        return paths[source];
+    }
+
+    // Fuentes (indices en el orden de construccion) cuyo AFN acepta la cadena.
+    public BitSet accepting(String string) {
+        BitSet result = new BitSet(paths.length);
+        accepting(string, result);
+        return result;
+    }
+
+    // Igual que accepting(String), escribiendo en 'result' (que se limpia primero) para no reservar memoria.
+    public void accepting(CharSequence string, BitSet result) {
+        result.clear();
+        Evaluation evaluation = evaluations.get();
+        evaluation.matcher.reset().matches(string);
+        int count = evaluation.matcher.acceptingStates(evaluation.states);
+        for (int i = 0; i < count; i++) {
+            result.set(sourceOf[evaluation.states[i]]);
+        }
+    }
+
+    private final class Evaluation {
+        final AFN.Matcher matcher = combined.matcher();
+        final int[] states = new int[sourceOf.length];
+    }
+
+    // Lee cadenas desde la consola e imprime los archivos cuyo AFN acepta cada una.
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Uso: java AFNUnion archivo1.afn archivo2.afn ...");
+            return;
+        }
+        AFNUnion union;
+        try {
+            union = new AFNUnion(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        System.out.println("Ingrese cadenas para evaluar (una vacia para terminar):");
+        BitSet accepted = new BitSet(union.size());
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            union.accepting(line, accepted);
+            List<String> names = new ArrayList<>();
+            for (int k = accepted.nextSetBit(0); k >= 0; k = accepted.nextSetBit(k + 1)) {
+                names.add(union.getPath(k));
+            }
+            System.out.println("La cadena '" + line + "' es aceptada por: " + (names.isEmpty() ? "ninguno" : String.join(", ", names)));
+        }
+    }
+}
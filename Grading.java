@@ -1,99 +1,467 @@
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.util.Arrays;
-
-public class Grading {
-    private static final String AFN_PATH = "./tests/afn/";
-    private static final String STRINGS_PATH = "./tests/strings/";
-    private static final int STRING_INDEX = 0;
-    private static final int ACCEPTANCE_INDEX = 1;
-    
-    public static void main(String[] args) throws Exception {
-        String[] filesList = getFilesList();
-        double finalScore = iterateTests(filesList);
-        displayFinalScore(finalScore);
-    }
-
-    private static String[] getFilesList(){
-        File folder = new File(AFN_PATH);
-        File[] filesList = folder.listFiles();
-        String[] fileNames = new String[filesList.length];
-        for(int i = 0; i < filesList.length; i++){
-            fileNames[i] = filesList[i].getName();
-        }
-
-        return fileNames;
-    }
-
-    private static double iterateTests(String[] filesList) throws Exception{
-        double finalScore = 0;
-        double testScore = 100.0 / filesList.length;
-
-        for(int i = 0; i < filesList.length; i++){
-            String fileName = filesList[i];
-            if(testSuccessful(fileName, testScore)){
-                finalScore += testScore;
-            }
-        }
-
-        return finalScore;
-    }
-
-    private static boolean testSuccessful(String fileName, double testScore) throws Exception{
-        String afnPath = getAfnPath(fileName);
-        String stringsPath = getStringsPath(fileName);
-
-        System.out.println("\nVerificando Test.................................." + afnPath);
-
-        AFN afn = new AFN(afnPath);
-        BufferedReader reader = new BufferedReader(new FileReader(stringsPath));
-        String line = reader.readLine();
-        
-        Boolean successful = true;
-        while(line != null && line.length() > 0){
-            String[] testData = line.split(" ");
-            boolean obtained = afn.accept(testData[STRING_INDEX]);
-            String expected = testData[ACCEPTANCE_INDEX];
-
-            if(!obtained && expected.equals("T")){
-                successful = false;
-            }
-            
-            if(obtained && expected.equals("F")){
-                successful = false;
-            }
-
-            
-
-            String failedTestString = "";
-            if (! successful) {
-                failedTestString = " - TEST FALLIDO (+0)";
-            }
-            System.out.println("Obtenido: " + obtained + " - Esperado: " + expected + failedTestString );
-            if (! successful){
-                reader.close();
-                return false;
-            }
-            line = reader.readLine();
-        }
-        String scoreString = String.format("%3d", Math.round(testScore));
-        System.out.println("TEST APROBADO ............................................................................... +" + scoreString);
-        reader.close();
-        return successful;
-    }
-
-    private static String getAfnPath(String afnFileName){
-        return AFN_PATH + afnFileName;
-    }
-
-    private static String getStringsPath(String afnFileName){
-        String fileName = afnFileName.split("\\.")[0];
-        return STRINGS_PATH + fileName + ".txt";
-    }
-
-    private static void displayFinalScore(double finalScore){
-        String scoreString = String.format("%3d", Math.round(finalScore));
-        System.out.println("Puntuacion Final............................................................................" + scoreString + "/100");
-    }
-}
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Evalua cada AFN de tests/afn con sus cadenas de tests/strings y, ademas, hace pruebas diferenciales sobre
+    AFN aleatorios generados con AFNGenerator: cada cadena se evalua con cada motor de AFN (ver ENGINES) y con
+    un simulador de referencia por fuerza bruta que recorre todas las configuraciones del automata. Uno de cada
+    RANDOM_LARGE_EVERY automatas tiene mas de 64 estados para probar los conjuntos de varias palabras. Los
+    archivos y los automatas se evaluan en paralelo, pero los resultados se imprimen siempre en el mismo orden.
+    Termina con codigo 1 si alguna prueba falla.
+
+    Uso: java Grading [-threads N] [-random 20] [-seed 1] [-verbose]
+    (-verbose imprime el resultado de cada cadena de tests/strings; -random 0 desactiva las pruebas diferenciales)
+*/
+public class Grading {
+    private static final String AFN_PATH = "./tests/afn/";
+    private static final String STRINGS_PATH = "./tests/strings/";
+    private static final int STRING_INDEX = 0;
+    private static final int ACCEPTANCE_INDEX = 1;
+
+    // Maximo de cadenas incorrectas que se imprimen por archivo o por automata aleatorio.
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    // Tamanos de los automatas y cadenas aleatorios: pequenos para que el AFD de toAFD se construya rapido.
+    private static final int RANDOM_MAX_STATES = 10;
+    private static final int RANDOM_LARGE_MIN_STATES = 65;
+    private static final int RANDOM_LARGE_MAX_STATES = 100;
+    private static final int RANDOM_LARGE_EVERY = 4; // Los automatas 0, 4, 8... son grandes
+    private static final int RANDOM_MAX_ALPHABET = 3;
+    private static final int RANDOM_MAX_LENGTH = 8;
+    private static final int RANDOM_STRINGS = 200;
+
+    // Motores comparados contra la referencia, en el orden en que differentialTest guarda sus resultados.
+    private static final String[] ENGINES = { "accept", "sin AFD perezoso", "optimizado", "acceptAll",
+            "prefijos compartidos", "Matcher por partes", "imagen AFNB", "AFD", "AFD minimo", "AFD paralelo", "AFD acotado" };
+    private static final int AFD_ENGINES = 4; // Los ultimos de ENGINES
+    private static final int AFD_PARALLELISM = 3;
+    // toAFDBounded corre primero con estos limites; si el AFD es mas grande, ese automata se prueba sin los motores
+    // de AFD, para que un AFD enorme no haga lenta la prueba ni agote la memoria con toAFD.
+    private static final long AFD_BOUNDED_MEMORY = 16L << 20;
+    private static final int AFD_BOUNDED_MAX_STATES = 10_000;
+
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    private static int randomAutomata = 20;
+    private static long seed = 1;
+    private static boolean verbose = false;
+
+    public static void main(String[] args) throws Exception {
+        parseArguments(args);
+        String[] filesList = getFilesList();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        boolean successful;
+        try {
+            double finalScore = iterateTests(filesList, executor);
+            displayFinalScore(finalScore);
+            successful = Math.round(finalScore) == 100;
+            if(randomAutomata > 0){
+                successful &= differentialTests(executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if(!successful){
+            System.exit(1);
+        }
+    }
+
+    private static void parseArguments(String[] args){
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("-verbose")){
+                verbose = true;
+            } else if(args[i].equals("-threads") && i + 1 < args.length){
+                threads = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-random") && i + 1 < args.length){
+                randomAutomata = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-seed") && i + 1 < args.length){
+                seed = Long.parseLong(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Argumento desconocido: " + args[i]);
+            }
+        }
+    }
+
+    private static String[] getFilesList(){
+        File folder = new File(AFN_PATH);
+        File[] filesList = folder.listFiles();
+        String[] fileNames = new String[filesList.length];
+        for(int i = 0; i < filesList.length; i++){
+            fileNames[i] = filesList[i].getName();
+        }
+        Arrays.sort(fileNames);
+
+        return fileNames;
+    }
+
+    // Cada archivo se prueba en el executor; su reporte se imprime en orden cuando termina.
+    private static double iterateTests(String[] filesList, ExecutorService executor) throws Exception{
+        double finalScore = 0;
+        double testScore = 100.0 / filesList.length;
+
+        List<Future<TestResult>> results = new ArrayList<>();
+        for(String fileName : filesList){
+            results.add(executor.submit(() -> runTest(fileName, testScore)));
+        }
+        for(Future<TestResult> result : results){
+            TestResult test = result.get();
+            System.out.print(test.report);
+            if(test.successful){
+                finalScore += testScore;
+            }
+        }
+
+        return finalScore;
+    }
+
+    private static final class TestResult {
+        final boolean successful;
+        final String report;
+
+        TestResult(boolean successful, String report){
+            this.successful = successful;
+            this.report = report;
+        }
+    }
+
+    private static TestResult runTest(String fileName, double testScore) throws Exception{
+        String afnPath = getAfnPath(fileName);
+        String stringsPath = getStringsPath(fileName);
+        StringBuilder report = new StringBuilder();
+        report.append("\nVerificando Test..................................").append(afnPath).append('\n');
+
+        AFN afn = new AFN(afnPath);
+        // El mismo AFN optimizado debe responder exactamente igual que el original.
+        AFN optimized = new AFN(afnPath, true);
+        List<String[]> tests = readTests(stringsPath);
+
+        // Solo se mide la evaluacion con 'accept', sin la lectura del archivo ni la comparacion.
+        boolean[] obtained = new boolean[tests.size()];
+        long start = System.nanoTime();
+        for(int i = 0; i < tests.size(); i++){
+            obtained[i] = afn.accept(tests.get(i)[STRING_INDEX]);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int failures = 0;
+        for(int i = 0; i < tests.size(); i++){
+            String[] testData = tests.get(i);
+            String expected = testData[ACCEPTANCE_INDEX];
+            boolean correct = obtained[i] == expected.equals("T");
+            boolean optimizedMatches = optimized.accept(testData[STRING_INDEX]) == obtained[i];
+
+            String failedTestString = "";
+            if(!correct || !optimizedMatches){
+                failedTestString = optimizedMatches ? " - TEST FALLIDO (+0)" : " - AFN OPTIMIZADO DIFERENTE (+0)";
+                failures++;
+            }
+            if(verbose || (failedTestString.length() > 0 && failures <= MAX_REPORTED_FAILURES)){
+                report.append("Cadena: '").append(testData[STRING_INDEX]).append("' - Obtenido: ").append(obtained[i])
+                        .append(" - Esperado: ").append(expected).append(failedTestString).append('\n');
+            }
+        }
+
+        report.append(String.format("Tiempo: %.3f ms, %d cadenas (%.0f cadenas/s)%n",
+                elapsed / 1e6, tests.size(), tests.size() / Math.max(elapsed / 1e9, 1e-9)));
+        if(failures > 0){
+            report.append("TEST FALLIDO: ").append(failures).append(" de ").append(tests.size()).append(" cadenas incorrectas (+0)\n");
+            return new TestResult(false, report.toString());
+        }
+        String scoreString = String.format("%3d", Math.round(testScore));
+        report.append("TEST APROBADO ............................................................................... +").append(scoreString).append('\n');
+        return new TestResult(true, report.toString());
+    }
+
+    // Lineas "cadena T|F" hasta la primera linea vacia.
+    private static List<String[]> readTests(String stringsPath) throws IOException{
+        List<String[]> tests = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(stringsPath))) {
+            String line = reader.readLine();
+            while(line != null && line.length() > 0){
+                tests.add(line.split(" "));
+                line = reader.readLine();
+            }
+        }
+        return tests;
+    }
+
+    private static String getAfnPath(String afnFileName){
+        return AFN_PATH + afnFileName;
+    }
+
+    private static String getStringsPath(String afnFileName){
+        String fileName = afnFileName.split("\\.")[0];
+        return STRINGS_PATH + fileName + ".txt";
+    }
+
+    private static void displayFinalScore(double finalScore){
+        String scoreString = String.format("%3d", Math.round(finalScore));
+        System.out.println("Puntuacion Final............................................................................" + scoreString + "/100");
+    }
+
+    /*
+        Pruebas diferenciales: el automata 'i' se genera con la semilla seed + i, asi que cualquier falla se puede
+        reproducir con la misma semilla. Los archivos de los automatas que fallan se conservan para depurarlos.
+    */
+    private static boolean differentialTests(ExecutorService executor) throws Exception{
+        File directory = Files.createTempDirectory("grading-").toFile();
+        long start = System.nanoTime();
+        List<Future<DifferentialResult>> results = new ArrayList<>();
+        for(int i = 0; i < randomAutomata; i++){
+            long automatonSeed = seed + i;
+            boolean large = i % RANDOM_LARGE_EVERY == 0;
+            results.add(executor.submit(() -> differentialTestReporting(directory, automatonSeed, large)));
+        }
+        int failed = 0;
+        int withoutAFD = 0;
+        for(Future<DifferentialResult> future : results){
+            DifferentialResult result = future.get();
+            if(result.failure != null){
+                System.out.print(result.failure);
+                failed++;
+            }
+            if(result.afdSkipped){
+                withoutAFD++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        directory.delete(); // Solo se borra si quedo vacio
+
+        System.out.printf("%nPruebas diferenciales: %d de %d automatas aleatorios correctos, %d cadenas cada uno (%.3f s)%n",
+                randomAutomata - failed, randomAutomata, RANDOM_STRINGS, seconds);
+        if(withoutAFD > 0){
+            System.out.printf("%d automatas se probaron sin los motores de AFD porque su AFD supera %d estados%n",
+                    withoutAFD, AFD_BOUNDED_MAX_STATES);
+        }
+        return failed == 0;
+    }
+
+    private static final class DifferentialResult {
+        final String failure; // null si todas las evaluaciones coinciden con la referencia
+        final boolean afdSkipped;
+
+        DifferentialResult(String failure, boolean afdSkipped){
+            this.failure = failure;
+            this.afdSkipped = afdSkipped;
+        }
+    }
+
+    // Cualquier excepcion (o error) al probar un automata se reporta como falla de ese automata.
+    private static DifferentialResult differentialTestReporting(File directory, long automatonSeed, boolean large){
+        try {
+            return differentialTest(directory, automatonSeed, large);
+        } catch (Exception | StackOverflowError | OutOfMemoryError e) {
+            StringWriter trace = new StringWriter();
+            e.printStackTrace(new PrintWriter(trace));
+            return new DifferentialResult("\nPRUEBA DIFERENCIAL FALLIDA (semilla " + automatonSeed + "): " + e
+                    + "\nArchivos en " + directory.getPath() + "\n" + trace, false);
+        }
+    }
+
+    private static DifferentialResult differentialTest(File directory, long automatonSeed, boolean large) throws Exception{
+        AFNGenerator generator = new AFNGenerator(automatonSeed);
+        int states = large
+                ? RANDOM_LARGE_MIN_STATES + generator.nextInt(RANDOM_LARGE_MAX_STATES - RANDOM_LARGE_MIN_STATES + 1)
+                : 2 + generator.nextInt(RANDOM_MAX_STATES - 1);
+        int alphabetSize = 1 + generator.nextInt(RANDOM_MAX_ALPHABET);
+        String[] alphabet = AFNGenerator.alphabet(alphabetSize);
+        // Algunas cadenas usan un simbolo extra que no esta en el alfabeto y deben rechazarse.
+        String[] extendedAlphabet = AFNGenerator.alphabet(alphabetSize + 1);
+        int[] acceptanceStates = generator.randomAcceptanceStates(states);
+        int[][][] table = generator.randomAutomaton(states, alphabetSize, 0.3, 2);
+
+        String name = "aleatorio-" + automatonSeed;
+        File afnFile = new File(directory, name + ".afn");
+        File imageFile = new File(directory, name + ".afnb");
+        File afdFile = new File(directory, name + ".afd");
+        File minimalFile = new File(directory, name + "-min.afd");
+        File parallelFile = new File(directory, name + "-paralelo.afd");
+        File boundedFile = new File(directory, name + "-acotado.afd");
+        File[] files = { afnFile, imageFile, afdFile, minimalFile, parallelFile, boundedFile };
+        AFNGenerator.write(afnFile, alphabet, acceptanceStates, table);
+
+        AFN afn = new AFN(afnFile.getPath());
+        AFN bitset = new AFN(afnFile.getPath());
+        bitset.setLazyDFABudget(0);
+        AFN optimized = new AFN(afnFile.getPath(), true);
+        afn.saveCompiledAFN(imageFile.getPath());
+        AFN image = new AFN(imageFile.getPath());
+
+        // Los demas toAFD solo se corren si el acotado termina dentro de sus limites.
+        AFD[] afds = null;
+        try {
+            afn.toAFDBounded(boundedFile.getPath(), AFD_BOUNDED_MEMORY, AFD_BOUNDED_MAX_STATES);
+        } catch (IllegalStateException e) {
+            boundedFile.delete();
+        }
+        if(boundedFile.exists()){
+            afn.toAFD(afdFile.getPath());
+            afn.toAFD(minimalFile.getPath(), true);
+            afn.toAFD(parallelFile.getPath(), false, AFD_PARALLELISM);
+            afds = new AFD[] { new AFD(afdFile.getPath()), new AFD(minimalFile.getPath()), new AFD(parallelFile.getPath()), new AFD(boundedFile.getPath()) };
+        }
+
+        String[] strings = new String[RANDOM_STRINGS];
+        for(int i = 0; i < strings.length; i++){
+            String[] symbols = i % 10 == 9 ? extendedAlphabet : alphabet;
+            strings[i] = generator.randomString(symbols, generator.nextInt(RANDOM_MAX_LENGTH + 1));
+        }
+        boolean[] batch = afn.acceptAll(strings);
+        boolean[] sharedPrefixes = new boolean[strings.length];
+        afn.acceptAllSharedPrefixes(strings, 0, strings.length, sharedPrefixes);
+
+        boolean[] accepting = new boolean[states];
+        for(int state : acceptanceStates){
+            accepting[state] = true;
+        }
+
+        StringBuilder report = new StringBuilder();
+        int failures = 0;
+        AFN.Matcher matcher = afn.matcher();
+        for(int i = 0; i < strings.length; i++){
+            String string = strings[i];
+            int[] symbols = symbolize(string, alphabet);
+            boolean expected = symbols != null && bruteForceAccepts(table, accepting, symbols, 1, 0, new boolean[states][symbols.length + 1]);
+
+            // El Matcher recibe la cadena en partes de 1 a 3 caracteres.
+            matcher.reset();
+            for(int position = 0, part = i; position < string.length(); part++){
+                int end = Math.min(string.length(), position + 1 + part % 3);
+                matcher.feed(string.subSequence(position, end));
+                position = end;
+            }
+
+            // Sin AFD, sus motores quedan fuera de la comparacion (y del reporte).
+            boolean[] obtained = Arrays.copyOf(new boolean[] { afn.accept(string), bitset.accept(string), optimized.accept(string),
+                    batch[i], sharedPrefixes[i], matcher.isAccepting(), image.accept(string) }, ENGINES.length);
+            int engines = afds != null ? ENGINES.length : ENGINES.length - AFD_ENGINES;
+            for(int k = 0; afds != null && k < AFD_ENGINES; k++){
+                obtained[ENGINES.length - AFD_ENGINES + k] = afds[k].accepts(string);
+            }
+            boolean matches = true;
+            for(int engine = 0; engine < engines; engine++){
+                matches &= obtained[engine] == expected;
+            }
+            if(!matches && ++failures <= MAX_REPORTED_FAILURES){
+                report.append(String.format("Cadena: '%s' - Referencia: %s -", string, expected));
+                for(int engine = 0; engine < engines; engine++){
+                    report.append(String.format("%s %s: %s", engine == 0 ? "" : ",", ENGINES[engine], obtained[engine]));
+                }
+                report.append(System.lineSeparator());
+            }
+        }
+
+        if(failures == 0){
+            for(File file : files){
+                file.delete();
+            }
+            return new DifferentialResult(null, afds == null);
+        }
+        return new DifferentialResult("\nPRUEBA DIFERENCIAL FALLIDA (semilla " + automatonSeed + ", " + states + " estados, "
+                + failures + " de " + strings.length + " cadenas): " + afnFile.getPath() + "\n" + report, afds == null);
+    }
+
+    // Divide la cadena tomando siempre el simbolo mas largo del alfabeto (igual que AFN); null si no se puede.
+    private static int[] symbolize(String string, String[] alphabet){
+        int[] symbols = new int[string.length()];
+        int count = 0;
+        int position = 0;
+        while(position < string.length()){
+            int best = -1;
+            for(int i = 0; i < alphabet.length; i++){
+                if(string.startsWith(alphabet[i], position) && (best < 0 || alphabet[i].length() > alphabet[best].length())){
+                    best = i;
+                }
+            }
+            if(best < 0){
+                return null;
+            }
+            symbols[count++] = best + 1;
+            position += alphabet[best].length();
+        }
+        return Arrays.copyOf(symbols, count);
+    }
+
+    /*
+        Referencia por fuerza bruta: recorre en profundidad todas las configuraciones (estado, posicion) alcanzables
+        desde 'state' leyendo symbols[position..], con transiciones lambda (fila 0 de la tabla) en cualquier momento.
+        'visited' marca las configuraciones ya recorridas: desde una configuracion se alcanza siempre lo mismo, asi
+        que no hace falta repetirla, y asi los ciclos lambda terminan y el costo queda en estados * (largo + 1).
+        No usa ninguna estructura del AFN, asi que sirve de referencia independiente.
+    */
+    private static boolean bruteForceAccepts(int[][][] table, boolean[] accepting, int[] symbols, int state, int position, boolean[][] visited){
+        if(state == 0 || visited[state][position]){
+            return false;
+        }
+        if(position == symbols.length && accepting[state]){
+            return true;
+        }
+        visited[state][position] = true;
+        for(int target : table[0][state]){
+            if(bruteForceAccepts(table, accepting, symbols, target, position, visited)){
+                return true;
+            }
+        }
+        if(position < symbols.length){
+            for(int target : table[symbols[position]][state]){
+                if(bruteForceAccepts(table, accepting, symbols, target, position + 1, visited)){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // AFD leido desde el formato que escribe AFN.toAFD: estado 1 inicial, 0 de error, una fila por estado.
+    private static final class AFD {
+        final String[] alphabet;
+        final boolean[] accepting;
+        final int[][] transitions;
+
+        AFD(String path) throws IOException{
+            try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+                alphabet = reader.readLine().split(",");
+                int states = Integer.parseInt(reader.readLine().trim());
+                accepting = new boolean[states + 1];
+                String acceptance = reader.readLine();
+                if(!acceptance.isEmpty()){
+                    for(String state : acceptance.split(",")){
+                        accepting[Integer.parseInt(state.trim())] = true;
+                    }
+                }
+                transitions = new int[states + 1][alphabet.length];
+                for(int state = 1; state <= states; state++){
+                    String[] row = reader.readLine().split(",");
+                    for(int symbol = 0; symbol < alphabet.length; symbol++){
+                        transitions[state][symbol] = Integer.parseInt(row[symbol].trim());
+                    }
+                }
+            }
+        }
+
+        boolean accepts(String string){
+            int[] symbols = symbolize(string, alphabet);
+            if(symbols == null){
+                return false;
+            }
+            int state = 1;
+            for(int symbol : symbols){
+                state = transitions[state][symbol - 1];
+                if(state == 0){
+                    return false;
+                }
+            }
+            return accepting[state];
+        }
+    }
+}